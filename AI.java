@@ -5,6 +5,8 @@ import static java.lang.Math.*;
 import static tablut.Piece.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** A Player that automatically generates moves.
  *  @author Lucy Chen
@@ -19,13 +21,77 @@ class AI extends Player {
     /**
      * A position-score magnitude indicating a forced win in a subsequent
      * move.  This differs from WINNING_VALUE to avoid putting off wins.
+     * A position won or lost PLY moves from the root is valued at
+     * WILL_WIN_VALUE - PLY or its negation, so that sooner wins and later
+     * losses are preferred.
      */
     private static final int WILL_WIN_VALUE = Integer.MAX_VALUE - 40;
+    /**
+     * The least magnitude of the value of a won or lost position, which
+     * is never more than WILL_WIN_VALUE - DECIDED_VALUE plies away.
+     */
+    private static final int DECIDED_VALUE = WILL_WIN_VALUE - 1024;
+    /**
+     * A position-score magnitude indicating a win found in the tablebase,
+     * less the number of plies to it (see tableValue).
+     */
+    private static final int TABLEBASE_VALUE = WILL_WIN_VALUE - 1;
     /**
      * A magnitude greater than a normal value.
      */
     private static final int INFTY = Integer.MAX_VALUE;
 
+    /** Value of each line along which the king could reach the edge. */
+    private static final int KING_LINE_VALUE = 24;
+
+    /** ESCAPE_VALUES[d] is the value of a king that needs d moves to reach
+     *  the edge (see Board.kingDistance). */
+    private static final int[] ESCAPE_VALUES = { 0, 32, 16, 6, 0 };
+
+    /** Default number of milliseconds to search for each move. */
+    static final long DEFAULT_TIME_LIMIT = 2000;
+
+    /** Default size of the transposition table in megabytes. */
+    static final int DEFAULT_TABLE_SIZE = 32;
+
+    /** Deepest search iterative deepening will attempt. */
+    private static final int MAX_DEPTH = 64;
+
+    /** Half-width of the first aspiration window around the value of the
+     *  previous iteration, and the half-width beyond which a window that
+     *  fails is widened to infinity. */
+    private static final int ASPIRATION_WINDOW = 16,
+        ASPIRATION_LIMIT = 1 << 12;
+
+    /** Greatest number of plies the quiescence search adds to the
+     *  nominal depth. */
+    private static final int QUIESCENCE_PLIES = 16;
+
+    /** Number of plies into the quiescence search within which black
+     *  searches all its moves when the king threatens to escape. */
+    private static final int EVASION_PLIES = 2;
+
+    /** Least depth at which null-move pruning is tried, the extra depth
+     *  by which a null move is reduced, and the number of pieces the side
+     *  to move must exceed for it to be tried (with fewer, having to move
+     *  may hurt, so passing would be misleading). */
+    private static final int NULL_MOVE_DEPTH = 3, NULL_MOVE_REDUCTION = 2,
+        ZUGZWANG_PIECES = 3;
+
+    /** Number of moves searched at full depth before late quiet moves are
+     *  reduced, and the least depth at which they are reduced. */
+    private static final int LATE_MOVES = 4, REDUCTION_DEPTH = 3;
+
+    /** Margin by which the static value must fail to reach alpha for quiet
+     *  moves to be skipped at frontier nodes. */
+    private static final int FUTILITY_MARGIN = 64;
+
+    /** Longest time spent pondering, as a multiple of the time limit. */
+    private static final long PONDER_FACTOR = 8;
+
+    /** Mask on the node count selecting how often the clock is read. */
+    private static final int CLOCK_MASK = 1023;
+
     /**
      * A new AI with no piece or controller (intended to produce
      * a template).
@@ -43,7 +109,66 @@ class AI extends Player {
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        AI result = new AI(piece, controller);
+        result._timeLimit = _timeLimit;
+        result._tableSize = _tableSize;
+        result._threads = _threads;
+        result._nullMove = _nullMove;
+        result._reductions = _reductions;
+        result._futility = _futility;
+        result._ponder = _ponder;
+        result._tablebase = _tablebase;
+        result._book = _book;
+        result._randomBook = _randomBook;
+        return result;
+    }
+
+    /** Set the time I may spend searching for each move to MILLIS
+     *  milliseconds.  Players created from me inherit this setting. */
+    void setTimeLimit(long millis) {
+        _timeLimit = millis;
+    }
+
+    /** Set the size of my transposition table to MEGABYTES megabytes.
+     *  Players created from me inherit this setting. */
+    void setTableSize(int megabytes) {
+        _tableSize = megabytes;
+    }
+
+    /** Turn null-move pruning on iff NULLMOVE, late-move reductions on iff
+     *  REDUCTIONS, and futility pruning on iff FUTILITY.  All are on by
+     *  default.  Players created from me inherit these settings. */
+    void setPruning(boolean nullMove, boolean reductions, boolean futility) {
+        _nullMove = nullMove;
+        _reductions = reductions;
+        _futility = futility;
+    }
+
+    /** Ponder (search on my opponent's time) iff PONDER.  Players created
+     *  from me inherit this setting. */
+    void setPondering(boolean ponder) {
+        _ponder = ponder;
+    }
+
+    /** Search for each move using THREADS (> 0) threads.  Players created
+     *  from me inherit this setting. */
+    void setThreads(int threads) {
+        _threads = threads;
+    }
+
+    /** Take the values of positions with few pieces from TABLES, or from
+     *  none if TABLES is null.  Players created from me share them. */
+    void setTablebase(Tablebase tables) {
+        _tablebase = tables;
+    }
+
+    /** Play moves from BOOK, or from none if BOOK is null, when it has
+     *  any for the current position, instead of searching.  If RANDOM,
+     *  choose among them at random by weight; otherwise, take the
+     *  heaviest.  Players created from me share BOOK. */
+    void setBook(OpeningBook book, boolean random) {
+        _book = book;
+        _randomBook = random;
     }
 
     @Override
@@ -52,14 +177,75 @@ class AI extends Player {
      *  latter if board().turn() is not myPiece() or if board.winner()
      *  is not null. */
     String myMove() {
+        _ponderHit = stopPondering();
+        if (_book != null) {
+            Move booked =
+                _book.choose(board(), _randomBook ? _controller : null);
+            if (booked != null) {
+                _controller.reportMove(booked);
+                return booked.toString();
+            }
+        }
+        _start = System.nanoTime();
         Move m = findMove();
         _controller.reportMove(m);
         if (board().turn() != myPiece() || board().winner() != null) {
             _controller.reportMove(m);
         }
+        if (_ponder) {
+            startPondering(m);
+        }
         return m.toString();
     }
 
+    /** Begin searching, on a background thread, the position expected
+     *  after my move MOVE from the current position and the reply
+     *  predicted by my principal variation, filling _table.  Does nothing
+     *  if there is no predicted reply or the game would be over.  The
+     *  search ends at the next call to myMove, or after PONDER_FACTOR
+     *  times my time limit if there is none. */
+    private void startPondering(Move move) {
+        List<Move> pv = _principalVariation;
+        if (pv.size() < 2 || pv.get(0) != move) {
+            return;
+        }
+        Board b = new Board(board());
+        b.makeMove(move);
+        if (b.winner() != null || !b.isLegal(pv.get(1))) {
+            return;
+        }
+        b.makeMove(pv.get(1));
+        if (b.winner() != null) {
+            return;
+        }
+        _ponderPosition = b.position();
+        _table.newSearch();
+        _stop = false;
+        _deadline = System.nanoTime() + PONDER_FACTOR * _timeLimit * 1000000L;
+        Searcher ponderer = _searchers[0];
+        ponderer.start(b);
+        _ponderer = new Thread(ponderer, "ponder");
+        _ponderer.setDaemon(true);
+        _ponderer.start();
+    }
+
+    /** Stop the search begun by startPondering, if any, and return true
+     *  iff the current position is the one it searched (a ponder hit).
+     *  On a miss, its work is simply discarded. */
+    private boolean stopPondering() {
+        if (_ponderer == null) {
+            return false;
+        }
+        _stop = true;
+        try {
+            _ponderer.join();
+        } catch (InterruptedException excp) {
+            throw new Error("unexpected interrupt");
+        }
+        _ponderer = null;
+        return board().position().equals(_ponderPosition);
+    }
+
     /** Return a heuristic value for BOARD. */
     @Override
     boolean isManual() {
@@ -68,126 +254,682 @@ class AI extends Player {
 
     /**
      * Return a move for me from the current position, assuming there
-     * is a move.
+     * is a move.  Searches to depths 1, 2, ... until the time limit runs
+     * out or maxDepth is reached, and returns the move chosen by the last
+     * search that completed.  With more than one thread, the others search
+     * the same position at staggered depths, sharing _table, until this
+     * search finishes; only this thread's result is used.  After a ponder
+     * hit, the entries left in _table by pondering count as current.
      */
     private Move findMove() {
         Board b = new Board(board());
-        _lastFoundMove = null;
-        int depth = maxDepth(b);
-        int sense;
-        _lmove = null;
-        if (this.myPiece() == WHITE) {
-            sense = 1;
-            findMove(new Board(b), depth, true, sense, -INFTY, INFTY);
-        } else {
-            sense = -1;
-            findMove(new Board(b), depth, true, sense, -INFTY, INFTY);
+        int limit = maxDepth(b);
+        prepare();
+        if (!_ponderHit) {
+            _table.newSearch();
+        }
+        _deadline = Long.MAX_VALUE;
+        _stop = false;
+        Searcher main = _searchers[0];
+        main.start(b);
+        Thread[] helpers = new Thread[_threads - 1];
+        for (int k = 1; k < _threads; k += 1) {
+            _searchers[k].start(b);
+            helpers[k - 1] = new Thread(_searchers[k], "search-" + k);
+            helpers[k - 1].setDaemon(true);
+            helpers[k - 1].start();
+        }
+        Move best = null;
+        int value = 0;
+        for (int depth = 1; depth <= limit; depth += 1) {
+            int result = main.search(depth, value);
+            if (main._aborted) {
+                break;
+            }
+            value = result;
+            best = main._lastFoundMove;
+            _principalVariation = main.principalVariation();
+            if (proven(value, depth)) {
+                break;
+            }
+            if (depth == 1) {
+                _deadline = _start + _timeLimit * 1000000L;
+            }
+        }
+        _stop = true;
+        for (Thread helper : helpers) {
+            try {
+                helper.join();
+            } catch (InterruptedException excp) {
+                throw new Error("unexpected interrupt");
+            }
         }
+        return best;
+    }
 
-        return _lastFoundMove;
+    /** Create my Searchers and transposition table if need be. */
+    private void prepare() {
+        if (_searchers == null) {
+            _searchers = new Searcher[_threads];
+            for (int k = 0; k < _threads; k += 1) {
+                _searchers[k] = new Searcher(k, MAX_DEPTH, false);
+            }
+        }
+        if (_table == null) {
+            _table = new TranspositionTable(_tableSize);
+        }
     }
 
-    /**
-     * The move found by the last call to one of the ...FindMove methods
-     * below.
-     */
-    private Move _lastFoundMove;
+    /** Return the value of BOARD for the side to move, found by searching
+     *  it to depths 1 to DEPTH (> 0) with no time limit on the calling
+     *  thread.  BOARD is unchanged, and my transposition table is kept
+     *  from call to call. */
+    int searchValue(Board board, int depth) {
+        prepare();
+        _deadline = Long.MAX_VALUE;
+        _stop = false;
+        Searcher searcher = _searchers[0];
+        searcher.start(board);
+        int value = 0;
+        for (int d = 1; d <= depth; d += 1) {
+            value = searcher.search(d, value);
+            if (proven(value, d)) {
+                break;
+            }
+        }
+        return value;
+    }
 
-    /**
-     * Find a move from position BOARD and return its value, recording
-     * the move found in _lastFoundMove iff SAVEMOVE. The move
-     * should have maximal value or have value > BETA if SENSE==1,
-     * and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     * DEPTH COPY levels.
-     * @return int dgdfg
-     * Searching at level 0 simply returns a static estimate
-     * of the board value and does not set _lastMoveFound.
-     */
-    private int findMove(Board copy, int depth,
-            boolean saveMove, int sense, int alpha, int beta) {
-        Piece now;
-        if (sense == 1) {
-            now = WHITE;
-        } else {
-            now = BLACK;
+    /** Return the expected line of play, beginning with my move, found by
+     *  the deepest search that completed on my last move. */
+    List<Move> principalVariation() {
+        return _principalVariation;
+    }
+
+    /** Return the best move for the side to move on BOARD, which is left
+     *  unchanged, as found by a full search to DEPTH (> 0) levels, or null
+     *  if there is no move.  The first of the root moves (in the order of
+     *  Board.legalMoves) is searched first; then the rest are divided among
+     *  ForkJoinPool tasks, each with its own copy of BOARD and with a
+     *  bound on its value taken from an atomic record of the best value
+     *  so far.  No transposition table is used, and ties go to the earlier
+     *  root move, so the result depends only on BOARD and DEPTH.  Sets
+     *  lastValue() to the value of the move. */
+    Move analyze(Board board, int depth) {
+        _deadline = Long.MAX_VALUE;
+        _stop = false;
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.winner() != null ? 0
+            : board.legalMoves(board.turn(), moves);
+        if (n == 0) {
+            return null;
         }
-        if (depth == 0 || copy.winner() != null) {
-            return staticScore(copy);
+        int sense = board.turn() == WHITE ? 1 : -1;
+        AtomicLong bound = new AtomicLong(Long.MIN_VALUE);
+        RootMove[] tasks = new RootMove[n];
+        for (int i = 0; i < n; i += 1) {
+            tasks[i] = new RootMove(board, moves[i], i, depth, bound);
         }
-        int value = 0;
-        if (sense == 1) {
-            Board c = new Board(copy);
-            List<Move> m = copy.legalMoves(WHITE);
-            value = -INFTY;
-            for (int i = 0; i < m.size(); i++) {
-                if (saveMove) {
-                    _lmove = m.get(i);
+        tasks[0].compute();
+        for (int i = 1; i < n; i += 1) {
+            tasks[i].fork();
+        }
+        for (int i = 1; i < n; i += 1) {
+            tasks[i].join();
+        }
+        long best = bound.get();
+        _lastValue = sense * (int) (best >> 32);
+        return Move.mv(moves[index(best)]);
+    }
+
+    /** Return the value found by the last call to analyze, positive
+     *  values favoring white. */
+    int lastValue() {
+        return _lastValue;
+    }
+
+    /** Return VALUE (for the side to move at the root) and the root move
+     *  number INDEX packed so that greater values and, among equal values,
+     *  earlier moves compare greater. */
+    private static long pack(int value, int index) {
+        return (long) value << 32 | (0xffffffffL - index);
+    }
+
+    /** Return the root move number packed in BEST. */
+    private static int index(long best) {
+        return (int) (0xffffffffL - (best & 0xffffffffL));
+    }
+
+    /** The search of one root move for analyze. */
+    private class RootMove extends RecursiveAction {
+
+        /** A search of the packed move CODE, the INDEXth root move from
+         *  BOARD, to DEPTH levels in all.  BOUND records the best value
+         *  and move found so far (see pack). */
+        RootMove(Board board, int code, int index, int depth,
+                 AtomicLong bound) {
+            _searcher = new Searcher(index, depth, true);
+            _searcher.start(board);
+            _code = code;
+            _index = index;
+            _depth = depth;
+            _bound = bound;
+        }
+
+        /** Search my move with a window excluding values that cannot beat
+         *  the best so far, and record the value if it might. */
+        @Override
+        protected void compute() {
+            long best = _bound.get();
+            int alpha = best == Long.MIN_VALUE ? -INFTY
+                : index(best) < _index ? (int) (best >> 32)
+                : Math.max((int) (best >> 32) - 1, -INFTY);
+            Board board = _searcher._board;
+            board.makeMove(Move.mv(_code));
+            int value = -_searcher.findMove(board, _depth - 1, 1,
+                                            -INFTY, -alpha);
+            board.undo();
+            if (value > alpha) {
+                _bound.accumulateAndGet(pack(value, _index), Math::max);
+            }
+        }
+
+        /** Searches my move on a private copy of the root position. */
+        private final Searcher _searcher;
+        /** My packed move. */
+        private final int _code;
+        /** My position in the list of root moves. */
+        private final int _index;
+        /** Total depth of the search. */
+        private final int _depth;
+        /** Best value and move so far, as packed by pack. */
+        private final AtomicLong _bound;
+    }
+
+    /** The state of one thread's search: its own copy of the position,
+     *  move buffers, principal variation and move-ordering tables.  All
+     *  Searchers share _table, and all stop once _stop is set.  Values are
+     *  from the point of view of the side to move (negamax). */
+    private class Searcher implements Runnable {
+
+        /** Searcher number ID; number 0 runs on the thread calling
+         *  findMove() and the others on helper threads.  Searches to at
+         *  most MAXDEPTH levels.  If EXACT, uses neither _table nor
+         *  selective pruning, so that results do not depend on timing. */
+        Searcher(int id, int maxDepth, boolean exact) {
+            _id = id;
+            _exact = exact;
+            _maxPly = maxDepth + QUIESCENCE_PLIES;
+            _moves = new int[_maxPly + 1][Board.MAX_MOVES];
+            _scores = new int[_maxPly + 1][Board.MAX_MOVES];
+            _pv = new int[_maxPly + 1][_maxPly + 1];
+            _pvLength = new int[_maxPly + 1];
+            _order = new MoveOrder(_maxPly);
+        }
+
+        /** Prepare to search from a copy of BOARD. */
+        void start(Board board) {
+            _board = new Board(board);
+            _order.newSearch();
+            _aborted = false;
+        }
+
+        /** Search on a helper thread: to depths 1, 2, ... (every other
+         *  helper skipping depth 1, so that helpers are staggered) until
+         *  the search is stopped or a forced win or loss is proven. */
+        @Override
+        public void run() {
+            int value = 0;
+            for (int depth = 1 + (_id & 1); depth <= MAX_DEPTH; depth += 1) {
+                value = search(depth, value);
+                if (_aborted || proven(value, depth)) {
+                    break;
                 }
-                Board j = new Board(c);
-                j.makeMove(m.get(i));
-                int fmove = findMove(j, depth - 1,
-                        false, 0 - sense, alpha, beta);
-                value = Math.max(value, fmove);
-                alpha = Math.max(alpha, value);
-                if (fmove >= value && now == myPiece() && saveMove) {
-                    _lastFoundMove = m.get(i);
+            }
+        }
+
+        /** Search my position to DEPTH, setting _lastFoundMove and the
+         *  principal variation, and return its value.  Unless DEPTH is 1
+         *  or GUESS (the value from the previous depth) is a win or loss,
+         *  first searches a narrow window around GUESS, widening it on
+         *  whichever side the value falls outside (at once to infinity if
+         *  the value there is a win or loss). */
+        int search(int depth, int guess) {
+            int alpha = -INFTY, beta = INFTY;
+            int delta = ASPIRATION_WINDOW;
+            if (depth > 1 && Math.abs(guess) < DECIDED_VALUE) {
+                alpha = guess - delta;
+                beta = guess + delta;
+            }
+            while (true) {
+                _lastFoundMove = null;
+                int value = findMove(_board, depth, 0, alpha, beta);
+                if (_aborted) {
+                    return value;
+                } else if (value <= alpha && alpha > -INFTY) {
+                    delta *= 4;
+                    alpha = delta > ASPIRATION_LIMIT
+                        || value <= -DECIDED_VALUE ? -INFTY : guess - delta;
+                } else if (value >= beta && beta < INFTY) {
+                    delta *= 4;
+                    beta = delta > ASPIRATION_LIMIT
+                        || value >= DECIDED_VALUE ? INFTY : guess + delta;
+                } else {
+                    return value;
                 }
-                if (alpha >= beta) {
-                    break;
+            }
+        }
+
+        /** Return the principal variation found by the last search. */
+        List<Move> principalVariation() {
+            ArrayList<Move> line = new ArrayList<>();
+            for (int p = 0; p < _pvLength[0]; p += 1) {
+                line.add(Move.mv(_pv[0][p]));
+            }
+            return line;
+        }
+
+        /**
+         * The move found by the last search at the root.
+         */
+        Move _lastFoundMove;
+
+        /**
+         * Return the value of position COPY for the side to move, searched
+         * to DEPTH levels, where COPY is PLY moves from the root.  The
+         * value is exact if it lies strictly between ALPHA and BETA; a
+         * value <= ALPHA is an upper bound and one >= BETA a lower bound.
+         * The first move is searched with the full window and the rest
+         * with a zero window, searching again with the full window any
+         * that beats ALPHA.  Moves are made and undone on COPY, which is
+         * left as it was found.  Leaves the principal variation from COPY
+         * in _pv[PLY], and at the root sets _lastFoundMove.  Searching at
+         * level 0 continues with a quiescence search.  Positions in the
+         * tablebase, other than the root, take their values from it.  Wins
+         * and losses are kept in _table relative to the position stored,
+         * not the root (see fromNode).  Once
+         * the deadline has passed or the search is stopped, sets _aborted
+         * and returns a meaningless value.
+         */
+        private int findMove(Board copy, int depth, int ply,
+                             int alpha, int beta) {
+            if (depth == 0) {
+                return quiesce(copy, ply, 0, alpha, beta);
+            }
+            _nodes += 1;
+            if ((_nodes & CLOCK_MASK) == 0
+                && (_stop || System.nanoTime() > _deadline)) {
+                _aborted = true;
+            }
+            if (_aborted) {
+                return 0;
+            }
+            _pvLength[ply] = ply;
+            if (copy.winner() != null) {
+                return standPat(copy, ply);
+            }
+            if (ply > 0 && _tablebase != null) {
+                int entry = _tablebase.probe(copy, _squares);
+                if (entry != Tablebase.NONE) {
+                    return fromNode(tableValue(entry), ply);
                 }
             }
-        } else {
-            value = INFTY;
-            Board c = new Board(copy);
-            List<Move> m = c.legalMoves(BLACK);
-            for (int i = 0; i < m.size(); i++) {
-                Board j = new Board(c);
-                if (saveMove) {
-                    _lmove = m.get(i);
+            boolean pvNode = alpha + 1 < beta;
+            long key = copy.key();
+            long entry = _exact ? 0 : _table.probe(key);
+            int hashMove = TranspositionTable.NO_MOVE;
+            if (entry != 0) {
+                hashMove = TranspositionTable.move(entry);
+                if (ply > 0 && !pvNode
+                    && TranspositionTable.depth(entry) >= depth) {
+                    int score =
+                        fromNode(TranspositionTable.score(entry), ply);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT
+                        || bound == TranspositionTable.LOWER
+                           && score >= beta
+                        || bound == TranspositionTable.UPPER
+                           && score <= alpha) {
+                        return score;
+                    }
                 }
-                j.makeMove(m.get(i));
-                int fmove = findMove(j, depth - 1,
-                        false, 0 - sense, alpha, beta);
-                if (fmove <= value && now == myPiece() && saveMove) {
-                    _lastFoundMove = m.get(i);
+            }
+            boolean selective = !_exact && !pvNode && ply > 0
+                && !copy.kingCanEscape();
+            int standPat = selective ? standPat(copy, ply) : 0;
+            if (selective && _nullMove && depth >= NULL_MOVE_DEPTH
+                && _nullPly != ply - 1 && standPat >= beta
+                && copy.getPieceLocations(copy.turn()) > ZUGZWANG_PIECES) {
+                int score = nullMove(copy, depth, ply, beta);
+                if (_aborted) {
+                    return 0;
+                } else if (score >= beta) {
+                    return score >= DECIDED_VALUE ? beta : score;
                 }
-                value = Math.min(value, fmove);
-                beta = min(beta, value);
-                j.undo();
-                if (alpha >= beta) {
-                    break;
+            }
+            boolean futile = selective && _futility && depth == 1
+                && Math.abs(standPat) < DECIDED_VALUE
+                && standPat + FUTILITY_MARGIN <= alpha;
+            int alpha0 = alpha;
+            int[] m = _moves[ply];
+            int n = copy.legalMoves(copy.turn(), m);
+            if (n == 0) {
+                return fromNode(-WILL_WIN_VALUE, ply);
+            }
+            int[] scores = _scores[ply];
+            _order.rank(copy, m, scores, n, hashMove, ply);
+            int value = -INFTY;
+            int best = TranspositionTable.NO_MOVE;
+            for (int i = 0; i < n; i++) {
+                int code = MoveOrder.next(m, scores, i, n);
+                boolean capture = MoveOrder.isCapture(scores[i]);
+                boolean quiet = (futile || i >= LATE_MOVES)
+                    && code != hashMove && !capture
+                    && copy.get(Move.fromIndex(code)) != KING;
+                if (futile && quiet) {
+                    value = Math.max(value, standPat + FUTILITY_MARGIN);
+                    continue;
+                }
+                int reduction = 0;
+                if (!_exact && _reductions && quiet && i >= LATE_MOVES
+                    && depth >= REDUCTION_DEPTH) {
+                    reduction = i >= 4 * LATE_MOVES ? 2 : 1;
+                    reduction = Math.min(reduction, depth - 2);
+                }
+                copy.makeMove(Move.mv(code));
+                int score;
+                if (i == 0) {
+                    score = -findMove(copy, depth - 1, ply + 1,
+                                      -beta, -alpha);
+                } else {
+                    score = -findMove(copy, depth - 1 - reduction, ply + 1,
+                                      -alpha - 1, -alpha);
+                    if (score > alpha && reduction > 0) {
+                        score = -findMove(copy, depth - 1, ply + 1,
+                                          -alpha - 1, -alpha);
+                    }
+                    if (score > alpha && score < beta) {
+                        score = -findMove(copy, depth - 1, ply + 1,
+                                          -beta, -alpha);
+                    }
+                }
+                copy.undo();
+                if (_aborted) {
+                    return 0;
+                }
+                if (best == TranspositionTable.NO_MOVE) {
+                    best = code;
                 }
+                if (score > value) {
+                    value = score;
+                    best = code;
+                    if (ply == 0) {
+                        _lastFoundMove = Move.mv(code);
+                    }
+                }
+                if (score > alpha) {
+                    alpha = score;
+                    extendVariation(ply, code);
+                    if (alpha >= beta) {
+                        if (!capture) {
+                            _order.cutoff(code, ply, depth);
+                        }
+                        break;
+                    }
+                }
+            }
+            if (!_exact) {
+                int bound = value <= alpha0 ? TranspositionTable.UPPER
+                    : value >= beta ? TranspositionTable.LOWER
+                    : TranspositionTable.EXACT;
+                _table.store(key, depth, bound, toNode(value, ply), best);
             }
+            return value;
         }
-        if (saveMove && _lastFoundMove == null) {
-            _lastFoundMove = _lmove;
+
+        /** Return a lower bound on the value of position COPY for the side
+         *  to move, PLY moves from the root, found by passing and searching
+         *  the opponent's moves with the zero window at BETA, to DEPTH
+         *  levels less NULL_MOVE_REDUCTION. */
+        private int nullMove(Board copy, int depth, int ply, int beta) {
+            int saved = _nullPly;
+            _nullPly = ply;
+            copy.pass();
+            int score = -findMove(copy,
+                                  Math.max(0, depth - 1 - NULL_MOVE_REDUCTION),
+                                  ply + 1, -beta, -beta + 1);
+            copy.pass();
+            _nullPly = saved;
+            return score;
         }
-        return value;
+
+        /** Return the value of position COPY, PLY moves from the root and
+         *  QPLY moves into the quiescence search, for the side to move,
+         *  searching only captures, within the window (ALPHA, BETA) as for
+         *  findMove.  The side to move may instead stand pat on the static
+         *  value, except that a king able to reach the edge wins at once
+         *  if white is to move, and otherwise black searches all its moves
+         *  to stop it, if QPLY is less than EVASION_PLIES.  Captures all
+         *  rank alike (see MoveOrder), so they are searched in the order
+         *  generated, without ranking them. */
+        private int quiesce(Board copy, int ply, int qply,
+                            int alpha, int beta) {
+            _nodes += 1;
+            if ((_nodes & CLOCK_MASK) == 0
+                && (_stop || System.nanoTime() > _deadline)) {
+                _aborted = true;
+            }
+            if (_aborted) {
+                return 0;
+            }
+            _pvLength[ply] = ply;
+            if (copy.winner() != null || ply == _maxPly) {
+                return standPat(copy, ply);
+            }
+            boolean threat = copy.kingCanEscape();
+            if (threat && copy.turn() == WHITE) {
+                return fromNode(WILL_WIN_VALUE, ply + 1);
+            }
+            threat = threat && qply < EVASION_PLIES;
+            int[] m = _moves[ply];
+            int n;
+            int value;
+            if (threat) {
+                n = copy.legalMoves(copy.turn(), m);
+                value = fromNode(-WILL_WIN_VALUE, ply);
+            } else {
+                value = standPat(copy, ply);
+                if (value >= beta) {
+                    return value;
+                }
+                alpha = Math.max(alpha, value);
+                n = copy.captureMoves(copy.turn(), m);
+            }
+            int[] scores = _scores[ply];
+            if (threat) {
+                _order.rank(copy, m, scores, n, TranspositionTable.NO_MOVE,
+                            ply);
+            }
+            for (int i = 0; i < n; i++) {
+                int code = threat ? MoveOrder.next(m, scores, i, n) : m[i];
+                copy.makeMove(Move.mv(code));
+                int score = -quiesce(copy, ply + 1, qply + 1, -beta, -alpha);
+                copy.undo();
+                if (_aborted) {
+                    return 0;
+                }
+                value = Math.max(value, score);
+                if (score > alpha) {
+                    alpha = score;
+                    extendVariation(ply, code);
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+            return value;
+        }
+
+        /** Return the static value of COPY, PLY moves from the root, for
+         *  the side to move. */
+        private int standPat(Board copy, int ply) {
+            int score = staticScore(copy);
+            return fromNode(copy.turn() == WHITE ? score : -score, ply);
+        }
+
+        /** Make the principal variation at PLY the packed move CODE
+         *  followed by the principal variation at PLY + 1. */
+        private void extendVariation(int ply, int code) {
+            int length = _pvLength[ply + 1];
+            _pv[ply][ply] = code;
+            System.arraycopy(_pv[ply + 1], ply + 1, _pv[ply], ply + 1,
+                             length - ply - 1);
+            _pvLength[ply] = length;
+        }
+
+        /** My number. */
+        private final int _id;
+        /** True iff I use neither _table nor selective pruning. */
+        private final boolean _exact;
+        /** Ply of the null move being searched, or -1. */
+        private int _nullPly = -1;
+        /** Greatest number of moves from the root I search, including
+         *  quiescence search. */
+        private final int _maxPly;
+        /** The position I search; moves are made and undone on it. */
+        private Board _board;
+        /** True iff my current search was abandoned. */
+        boolean _aborted;
+        /** Number of positions I have visited; the clock is read every
+         *  CLOCK_MASK + 1 of them. */
+        private long _nodes;
+        /** _moves[p] receives the packed legal moves generated at a node
+         *  p moves from the root. */
+        private final int[][] _moves;
+        /** _scores[p] holds the move-ordering ranks of _moves[p]. */
+        private final int[][] _scores;
+        /** Work space for probing _tablebase. */
+        private final int[] _squares = new int[Tablebase.MAX_PIECES];
+        /** Triangular table of principal variations: _pv[p][p .. q-1],
+         *  where q is _pvLength[p], is the expected line of play from the
+         *  node searched most recently p moves from the root. */
+        private final int[][] _pv;
+        /** Ends of the lines in _pv. */
+        private final int[] _pvLength;
+        /** Killer and history tables for ordering moves, kept from move
+         *  to move. */
+        private final MoveOrder _order;
     }
 
     /** Return a heuristically determined maximum search depth
-     *  based on characteristics of BOARD. */
+     *  based on characteristics of BOARD.  Iterative deepening normally
+     *  stops on the time limit well before this. */
     private static int maxDepth(Board board) {
-        return 3;
+        return MAX_DEPTH;
     }
 
-    /** Return a heuristic value for BOARD. */
+    /** Return a heuristic value for BOARD, positive values favoring
+     *  white: the material and positional values of the pieces, which
+     *  BOARD keeps up to date as it changes, plus a bonus for each line
+     *  along which the king could reach the edge and one that grows as
+     *  the number of moves the king needs to escape shrinks.  A side to
+     *  move that has no legal move has lost.  A won position is valued at
+     *  WILL_WIN_VALUE, as if it were the root. */
     private int staticScore(Board board) {
-        int white = board.getPieceLocations(WHITE);
-        int black = board.getPieceLocations(BLACK);
-        if (board.winner() == BLACK || !board.hasMove(WHITE)) {
-            return -INFTY;
-        } else if (board.winner() == WHITE || !board.hasMove(BLACK)) {
-            return INFTY;
+        if (board.winner() == BLACK) {
+            return -WILL_WIN_VALUE;
+        } else if (board.winner() == WHITE) {
+            return WILL_WIN_VALUE;
+        } else if (!board.hasMove(board.turn())) {
+            return board.turn() == WHITE ? -WILL_WIN_VALUE : WILL_WIN_VALUE;
         }
-        int kingpos = Math.abs(4
-                - board.kingPosition().col())
-                * Math.abs(4 - board.kingPosition().row());
-        return (white - black) * kingpos;
+        return board.pieceValues() + KING_LINE_VALUE * board.kingLines()
+            + ESCAPE_VALUES[board.kingDistance()];
     }
 
-    /** Return a heuristic value for BOARD. */
-    private Move _lmove;
+    /** Return VALUE, the value of a position relative to itself (as if it
+     *  were the root), relative to a root PLY moves before it: a win or
+     *  loss is PLY plies further off. */
+    private static int fromNode(int value, int ply) {
+        if (value >= DECIDED_VALUE) {
+            return value - ply;
+        } else if (value <= -DECIDED_VALUE) {
+            return value + ply;
+        }
+        return value;
+    }
+
+    /** Return VALUE, the value of a position PLY moves from the root
+     *  relative to the root, relative to the position itself; the inverse
+     *  of fromNode. */
+    private static int toNode(int value, int ply) {
+        if (value >= DECIDED_VALUE) {
+            return value + ply;
+        } else if (value <= -DECIDED_VALUE) {
+            return value - ply;
+        }
+        return value;
+    }
+
+    /** Return true iff VALUE, found by a search to DEPTH levels, is a win
+     *  or loss within DEPTH plies of the root, which deeper searches
+     *  cannot change. */
+    private static boolean proven(int value, int depth) {
+        return Math.abs(value) >= WILL_WIN_VALUE - depth;
+    }
+
+    /** Return the value for the side to move, relative to the position
+     *  itself (see fromNode), of a position whose tablebase entry is
+     *  ENTRY: 0 if it is drawn, and otherwise a win or loss, the sooner
+     *  the greater in magnitude. */
+    private static int tableValue(int entry) {
+        if (entry == Tablebase.DRAW) {
+            return 0;
+        }
+        int value = TABLEBASE_VALUE - Tablebase.distance(entry);
+        return Tablebase.wins(entry) ? value : -value;
+    }
+
+    /** Milliseconds I may spend searching for each move. */
+    private long _timeLimit = DEFAULT_TIME_LIMIT;
+    /** Size of my transposition table in megabytes. */
+    private int _tableSize = DEFAULT_TABLE_SIZE;
+    /** Number of threads searching for each move. */
+    private int _threads = 1;
+    /** True iff null-move pruning, late-move reductions and futility
+     *  pruning, respectively, are in use. */
+    private boolean _nullMove = true, _reductions = true, _futility = true;
+    /** Results of earlier searches, kept from move to move and shared by
+     *  all searching threads; created on first use. */
+    private TranspositionTable _table;
+    /** One Searcher for each thread, kept from move to move; created on
+     *  first use. */
+    private Searcher[] _searchers;
+    /** Value of System.nanoTime() when I started on the current move. */
+    private long _start;
+    /** System.nanoTime() after which the current search is abandoned. */
+    private volatile long _deadline;
+    /** True once the current search is over, telling helper threads to
+     *  stop. */
+    private volatile boolean _stop;
+    /** Endgame tablebases, or null. */
+    private Tablebase _tablebase;
+    /** Opening book, or null. */
+    private OpeningBook _book;
+    /** True iff I choose among book moves at random. */
+    private boolean _randomBook;
+    /** True iff I ponder. */
+    private boolean _ponder;
+    /** The thread pondering since my last move, or null. */
+    private Thread _ponderer;
+    /** The position being pondered. */
+    private Position _ponderPosition;
+    /** True iff the current search follows a ponder hit. */
+    private boolean _ponderHit;
+    /** The principal variation found on my last move. */
+    private List<Move> _principalVariation = new ArrayList<>();
+    /** Value found by the last call to analyze. */
+    private int _lastValue;
     /** Return a heuristic value for BOARD. */
     private ArrayList<ArrayList<Board>> _boards;
     /** Return a heuristic value for BOARD. */
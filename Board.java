@@ -1,10 +1,8 @@
 package tablut;
 import java.util.Formatter;
-import java.util.HashSet;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.Stack;
+import java.util.Random;
 import java.util.List;
 import static tablut.Piece.*;
 import static tablut.Square.*;
@@ -24,9 +22,176 @@ class Board {
         WTHRONE = sq(3, 4),
         ETHRONE = sq(5, 4);
 
-    /** Return the locations of all pieces on SIDE. */
-    private Square[] _thrones = { sq(4, 4), sq(4, 5), sq(4, 3),
-            sq(4, 3), sq(3, 4), sq(5, 4) };
+    /** An upper bound on the number of legal moves for one side: each empty
+     *  square is the destination of at most one move from each direction. */
+    static final int MAX_MOVES = 4 * SIZE * SIZE;
+
+    /** Index of THRONE. */
+    private static final int THRONE_INDEX = THRONE.index();
+
+    /** Initial capacity of the undo journal and position history. */
+    private static final int INITIAL_HISTORY = 64;
+
+    /** Offsets into a board's masks of the words for each kind of piece. */
+    private static final int WHITE_BITS = 0, BLACK_BITS = 2, KING_BITS = 4;
+
+    /** The kind of piece in each pair of words of a board's masks. */
+    private static final Piece[] MASK_PIECES = { WHITE, BLACK, KING };
+
+    /** Bit positions of the fields of an undo journal entry. */
+    private static final int TO_SHIFT = 7, KING_SHIFT = 14, WINNER_SHIFT = 21,
+        TURN_SHIFT = 24, REPEATED_SHIFT = 26, CAPTURES_SHIFT = 27;
+
+    /** Mask for a square index in an undo journal entry. */
+    private static final int SQ_MASK = (1 << TO_SHIFT) - 1;
+
+    /** All Pieces, indexed by ordinal. */
+    private static final Piece[] PIECES = Piece.values();
+
+    /** PARTNERS[i][d] is the index of the square two steps from the square
+     *  with index i in direction d, which together with i can sandwich the
+     *  square between them, or -1 if there is none. */
+    private static final int[][] PARTNERS = new int[SIZE * SIZE][4];
+
+    /** FLANKS[i][d] holds the indices of the two squares beside the square
+     *  one step from i in direction d, perpendicular to d, or -1.
+     *  With the mover on i, these must also be hostile for a capture against
+     *  the occupied throne. */
+    private static final int[][][] FLANKS = new int[SIZE * SIZE][4][2];
+
+    /** NEAR_THRONE[i] is true iff the square with index i is the throne or
+     *  next to it, where the king must be surrounded on four sides. */
+    private static final boolean[] NEAR_THRONE = new boolean[SIZE * SIZE];
+
+    /** EDGE[i] is true iff the square with index i is on the edge of the
+     *  board, where the king escapes. */
+    private static final boolean[] EDGE = new boolean[SIZE * SIZE];
+
+    /** Greatest number of king moves kingDistance looks ahead. */
+    static final int ESCAPE_LIMIT = 3;
+
+    /** Material values of a white piece and a black piece, the value of
+     *  each step the king is away from the throne toward the edge, and the
+     *  value to black of a piece guarding the edge two or fewer squares
+     *  in from it. */
+    private static final int WHITE_VALUE = 20, BLACK_VALUE = 10,
+        KING_STEP = 8, GUARD_VALUE = 2;
+
+    /** PIECE_VALUES[p][i] is the value of the Piece with ordinal p on the
+     *  square with index i, positive values favoring white.  Board keeps
+     *  the sum over all pieces in _value for AI's static evaluation. */
+    private static final int[][] PIECE_VALUES = new int[4][SIZE * SIZE];
+
+    static {
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            int col = i % SIZE, row = i / SIZE;
+            int edge = Math.min(Math.min(col, SIZE - 1 - col),
+                                Math.min(row, SIZE - 1 - row));
+            PIECE_VALUES[WHITE.ordinal()][i] = WHITE_VALUE;
+            PIECE_VALUES[BLACK.ordinal()][i] =
+                -BLACK_VALUE - (edge >= 1 && edge <= 2 ? GUARD_VALUE : 0);
+            PIECE_VALUES[KING.ordinal()][i] = KING_STEP * (SIZE / 2 - edge);
+        }
+    }
+
+    /** ZOBRIST[p][i] is the random key of Piece with ordinal p on the
+     *  square with index i. */
+    private static final long[][] ZOBRIST = new long[4][SIZE * SIZE];
+
+    /** Key added to positions in which WHITE is to move. */
+    private static final long WHITE_TO_MOVE;
+
+    static {
+        Random keys = new Random(0x7AB1075L);
+        for (long[] row : ZOBRIST) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = keys.nextLong();
+            }
+        }
+        WHITE_TO_MOVE = keys.nextLong();
+    }
+
+    /** SQUARES[i] is the square whose index is i. */
+    static final Square[] SQUARES = new Square[SIZE * SIZE];
+
+    /** RAYS[i][d] lists the indices of the squares in direction d from the
+     *  square with index i, nearest first, followed by -1. */
+    static final int[][][] RAYS = new int[SIZE * SIZE][4][];
+
+    static {
+        for (int i = 0; i < SQUARES.length; i++) {
+            SQUARES[i] = sq(i % SIZE, i / SIZE);
+        }
+        for (int i = 0; i < SQUARES.length; i++) {
+            for (int d = 0; d < 4; d++) {
+                SqList L = ROOK_SQUARES[i][d];
+                RAYS[i][d] = new int[L.size() + 1];
+                for (int k = 0; k < L.size(); k++) {
+                    RAYS[i][d][k] = L.get(k).index();
+                }
+                RAYS[i][d][L.size()] = -1;
+            }
+        }
+        for (Square s : SQUARES) {
+            EDGE[s.index()] = s.isEdge();
+            for (int d = 0; d < 4; d++) {
+                Square far = s.rookMove(d, 2);
+                PARTNERS[s.index()][d] = far == null ? -1 : far.index();
+                Square mid = s.rookMove(d, 1);
+                for (int k = 0; k < 2; k++) {
+                    Square flank = mid == null ? null
+                        : mid.rookMove((d + 1 + 2 * k) % 4, 1);
+                    FLANKS[s.index()][d][k] =
+                        flank == null ? -1 : flank.index();
+                }
+            }
+        }
+        for (Square s : new Square[] { THRONE, NTHRONE, STHRONE,
+                                       WTHRONE, ETHRONE }) {
+            NEAR_THRONE[s.index()] = true;
+        }
+    }
+
+    /** Number of symmetries of the board: its rotations and reflections,
+     *  under which the rules of the game are unchanged. */
+    static final int SYMMETRIES = 8;
+
+    /** SYMMETRY[s][i] is the index of the square to which symmetry s takes
+     *  the square with index i.  Symmetry s exchanges columns and rows if
+     *  s & 4 is set, then reverses the columns if s & 1 is set and the
+     *  rows if s & 2 is set.  Symmetry 0 is the identity. */
+    static final int[][] SYMMETRY = new int[SYMMETRIES][SIZE * SIZE];
+
+    /** INVERSE[s] is the symmetry undoing symmetry s. */
+    static final int[] INVERSE = new int[SYMMETRIES];
+
+    static {
+        for (int s = 0; s < SYMMETRIES; s++) {
+            for (int i = 0; i < SIZE * SIZE; i++) {
+                int col = i % SIZE, row = i / SIZE;
+                if ((s & 4) != 0) {
+                    int t = col;
+                    col = row;
+                    row = t;
+                }
+                if ((s & 1) != 0) {
+                    col = SIZE - 1 - col;
+                }
+                if ((s & 2) != 0) {
+                    row = SIZE - 1 - row;
+                }
+                SYMMETRY[s][i] = col + row * SIZE;
+            }
+        }
+        for (int s = 0; s < SYMMETRIES; s++) {
+            for (int t = 0; t < SYMMETRIES; t++) {
+                if (SYMMETRY[t][SYMMETRY[s][1]] == 1
+                    && SYMMETRY[t][SYMMETRY[s][SIZE]] == SIZE) {
+                    INVERSE[s] = t;
+                }
+            }
+        }
+    }
 
     /** Initial positions of attackers. */
     static final Square[] INITIAL_ATTACKERS = {
@@ -53,70 +218,131 @@ class Board {
         copy(model);
     }
 
-    /** Copies MODEL into me. */
+    /** Copies MODEL into me.  I share MODEL's undo journal and position
+     *  history, so copying takes time independent of the length of the
+     *  game.  They stay MODEL's (or their owner's, if MODEL shares them
+     *  too): it may go on adding to them in place, while I copy them only
+     *  when I first change them.  The owner copies them only if it undoes
+     *  moves that I may still use (see unshare). */
     void copy(Board model) {
         if (model == this) {
             return;
         }
-        init();
-        _board = new Piece[SIZE][SIZE];
-        for (int i = 0; i < SIZE; i++) {
-            for (int j = 0; j < SIZE; j++) {
-                put(model.board()[i][j], sq(i, j));
-            }
+        System.arraycopy(model._masks, 0, _masks, 0, _masks.length);
+        System.arraycopy(model._counts, 0, _counts, 0, _counts.length);
+        System.arraycopy(model._packed, 0, _packed, 0, _packed.length);
+        if (!model._shared) {
+            model._journalShared =
+                Math.max(model._journalShared, model._journalSize);
+            model._historyShared =
+                Math.max(model._historyShared, model._historySize);
         }
+        _shared = true;
+        _journalShared = _historyShared = 0;
+        _journal = model._journal;
+        _journalSize = model._journalSize;
         _moveCount = model._moveCount;
-        _history = copyHistory(model._history);
-        _winner = null;
+        _key = model._key;
+        _value = model._value;
+        _history = model._history;
+        _historyWords = model._historyWords;
+        _historySize = model._historySize;
+        _positions = model._positions;
+        _winner = model._winner;
         _moveLim = model._moveLim;
-        _kingPosition = sq(model.kingPosition().col(),
-                model.kingPosition().row());
+        _kingPosition = model._kingPosition;
         _turn = model._turn;
         _repeated = model._repeated;
     }
 
-    /** Undo one move.  Has no effect on the initial board.
-     * @param h dfdbdfb
-     * @return Stack<String> eggfv*/
-    Stack<String> copyHistory(Stack<String> h) {
-        Stack<String> now =  new Stack<String>();
-
-        for (int i = 0; i < h.size(); i++) {
-            now.push(h.get(i));
+    /** Prepare to change entries JOURNAL and on of the undo journal and
+     *  entries HISTORY and on of the position history, first giving me
+     *  private copies of them if they are another board's, or if they are
+     *  mine but a copy of me may still use one of those entries.  Entries
+     *  past the part a copy uses are not its concern: it checks for
+     *  repeated positions only among its own, using _positions, which may
+     *  then hold more keys than it has, only as a filter. */
+    private void unshare(int journal, int history) {
+        if (_shared || journal < _journalShared
+            || history < _historyShared) {
+            _journal = Arrays.copyOf(_journal, _journal.length);
+            _history = Arrays.copyOf(_history, _history.length);
+            _historyWords =
+                Arrays.copyOf(_historyWords, _historyWords.length);
+            _positions = new PositionCounts();
+            for (int k = 0; k < _historySize; k++) {
+                _positions.add(_history[k]);
+            }
+            _shared = false;
+            _journalShared = _historyShared = 0;
         }
-        return now;
     }
 
     /** Clears the board to the initial position. */
     void init() {
-        _board = new Piece[SIZE][SIZE];
+        clearPieces();
         _legalMoves = new ArrayList<Move>();
-        _history = new Stack<String>();
+        _history = new long[INITIAL_HISTORY];
+        _historyWords = new long[INITIAL_HISTORY * Position.WORDS];
+        _historySize = 0;
+        _positions = new PositionCounts();
+        _journal = new int[INITIAL_HISTORY];
+        _journalSize = 0;
+        _shared = false;
+        _journalShared = _historyShared = 0;
         _winner = null;
         _kingPosition = THRONE;
         _moveCount = 0;
         _repeated = false;
         _moveLim = Integer.MAX_VALUE;
         _turn = BLACK;
-        for (int i = 0; i < SIZE; i++) {
-            for (int j = 0; j < SIZE; j++) {
-                if (Arrays.asList(INITIAL_ATTACKERS).contains(sq(i, j))) {
-                    _board[i][j] = BLACK;
-                } else if (Arrays.asList(INITIAL_DEFENDERS).contains(sq(i, j))
-                        || Arrays.asList(INITIAL_DEFENDERS).contains(sq(i, j))
-                        || Arrays.asList(_thrones).contains(sq(i, j))) {
-                    if (sq(i, j).equals(kingPosition())) {
-                        _board[i][j] = KING;
-                    } else {
-                        _board[i][j] = WHITE;
-                    }
-                } else {
-                    _board[i][j] = EMPTY;
-                }
-            }
+        for (Square s : INITIAL_ATTACKERS) {
+            put(BLACK, s);
+        }
+        for (Square s : INITIAL_DEFENDERS) {
+            put(WHITE, s);
         }
-        _shistory = new ArrayList<String>();
-        _shistory.add(encodedBoard().substring(1));
+        put(KING, THRONE);
+    }
+
+    /** Set me to P, with no history of earlier moves. */
+    void setPosition(Position p) {
+        clear(p.turn());
+        for (int i = 0; i < SQUARES.length; i++) {
+            put(p.get(i), SQUARES[i]);
+        }
+    }
+
+    /** Remove all pieces, any winner and the history of earlier moves,
+     *  leaving TURN to move, so that a position may be set up with put. */
+    void clear(Piece turn) {
+        clearPieces();
+        clearUndo();
+        _winner = null;
+        _repeated = false;
+        _moveCount = 0;
+        _kingPosition = THRONE;
+        _turn = turn;
+    }
+
+    /** Remove all pieces from the board. */
+    private void clearPieces() {
+        Arrays.fill(_masks, 0L);
+        Arrays.fill(_counts, 0);
+        Arrays.fill(_packed, 0L);
+        _key = 0;
+        _value = 0;
+    }
+
+    /** Return the current position and side to move. */
+    Position position() {
+        return new Position(_packed[0], _packed[1], packedTurn());
+    }
+
+    /** Return the last packed word of the current position, which includes
+     *  the side to move. */
+    private long packedTurn() {
+        return _packed[2] | (long) _turn.ordinal() << Position.TURN_SHIFT;
     }
 
     /** Set the move limit to LIM.  It is an error if 2*LIM <= moveCount().
@@ -130,6 +356,14 @@ class Board {
         return _turn;
     }
 
+    /** Give the move to the other side without moving a piece, as in a
+     *  null-move search.  Passing again restores the position.  A pass is
+     *  not a legal move and is not recorded for undoing or for detecting
+     *  repeated positions. */
+    void pass() {
+        _turn = _turn.opponent();
+    }
+
     /** Return the winner in the current position, or null if there is no winner
      *  yet. */
     Piece winner() {
@@ -144,26 +378,85 @@ class Board {
     /** Record current position and set winner() next mover if the current
      *  position is a repeat. */
     private void checkRepeated() {
-        String now = encodedBoard();
-        if (checkhistory(now)) {
+        if (checkhistory()) {
             _repeated = true;
             _winner = _turn;
         }
-        _history.push(encodedBoard());
+        addHistory();
     }
 
-    /** Undo one move.  Has no effect on the initial board.
-     * @param s dfdfv
-     * @return boolean dfgdfvd*/
-    boolean checkhistory(String s) {
-        for (int i = 0; i < _history.size(); i++) {
-            if (_history.get(i).equals(s)) {
+    /** Return true iff the current position has been recorded in the
+     *  history of this game.  Keys are compared first; the packed positions
+     *  are compared only when the key is present. */
+    boolean checkhistory() {
+        long key = key();
+        if (!_positions.contains(key)) {
+            return false;
+        }
+        long w2 = packedTurn();
+        for (int k = 0, j = 0; k < _historySize; k++, j += Position.WORDS) {
+            if (_history[k] == key && _historyWords[j] == _packed[0]
+                    && _historyWords[j + 1] == _packed[1]
+                    && _historyWords[j + 2] == w2) {
                 return true;
             }
         }
         return false;
     }
 
+    /** Return the Zobrist key of the current position, including the side
+     *  to move.  Equal positions have equal keys. */
+    long key() {
+        return _turn == WHITE ? _key ^ WHITE_TO_MOVE : _key;
+    }
+
+    /** Return the Zobrist key of the image of the current position, with
+     *  the same side to move, under symmetry SYMMETRY (see SYMMETRY).  The
+     *  key under symmetry 0 is key(). */
+    long key(int symmetry) {
+        int[] map = SYMMETRY[symmetry];
+        long key = _turn == WHITE ? WHITE_TO_MOVE : 0;
+        for (int k = 0; k < _masks.length; k++) {
+            long[] zobrist = ZOBRIST[MASK_PIECES[k / 2].ordinal()];
+            for (long m = _masks[k]; m != 0; m &= m - 1) {
+                int i = ((k & 1) << 6) + Long.numberOfTrailingZeros(m);
+                key ^= zobrist[map[i]];
+            }
+        }
+        return key;
+    }
+
+    /** Return the symmetry taking the current position to its canonical
+     *  orientation: the image under the symmetries with the least key.
+     *  Positions that are images of one another have the same canonical
+     *  orientation, so caches may hold one entry for all of them, keyed
+     *  by canonicalKey and with moves mapped by transform. */
+    int canonicalSymmetry() {
+        int best = 0;
+        long bestKey = key();
+        for (int s = 1; s < SYMMETRIES; s++) {
+            long key = key(s);
+            if (key < bestKey) {
+                best = s;
+                bestKey = key;
+            }
+        }
+        return best;
+    }
+
+    /** Return the key of the canonical orientation of the current
+     *  position (see canonicalSymmetry). */
+    long canonicalKey() {
+        return key(canonicalSymmetry());
+    }
+
+    /** Return the packed move CODE (see Move.code) mapped by symmetry
+     *  SYMMETRY. */
+    static int transform(int code, int symmetry) {
+        int[] map = SYMMETRY[symmetry];
+        return Move.code(map[Move.fromIndex(code)], map[Move.toIndex(code)]);
+    }
+
     /** Return the number of moves since the initial position that have not been
      *  undone. */
     int moveCount() {
@@ -183,7 +476,61 @@ class Board {
     /** Return the contents of the square at (COL, ROW), where
      *  0 <= COL, ROW <= 9. */
     final Piece get(int col, int row) {
-        return _board[col][row];
+        return get(col + row * SIZE);
+    }
+
+    /** Return the contents of the square whose index is INDEX. */
+    final Piece get(int index) {
+        int w = index >>> 6;
+        long bit = 1L << index;
+        if ((_masks[WHITE_BITS + w] & bit) != 0) {
+            return WHITE;
+        } else if ((_masks[BLACK_BITS + w] & bit) != 0) {
+            return BLACK;
+        } else if ((_masks[KING_BITS + w] & bit) != 0) {
+            return KING;
+        }
+        return EMPTY;
+    }
+
+    /** Return true iff the square whose index is INDEX is occupied. */
+    private boolean occupied(int index) {
+        return (occupancy(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /** Set the square with index INDEX to P in the masks only. */
+    private void setBits(Piece p, int index) {
+        int w = index >>> 6;
+        long bit = 1L << index;
+        Piece old = get(index);
+        int pw = index >>> 5, shift = (index & 31) << 1;
+        _packed[pw] = _packed[pw] & ~(3L << shift)
+            | (long) p.ordinal() << shift;
+        if (old != EMPTY) {
+            _masks[bitsOf(old) + w] &= ~bit;
+            _counts[old.ordinal()] -= 1;
+            _key ^= ZOBRIST[old.ordinal()][index];
+            _value -= PIECE_VALUES[old.ordinal()][index];
+        }
+        if (p != EMPTY) {
+            _masks[bitsOf(p) + w] |= bit;
+            _counts[p.ordinal()] += 1;
+            _key ^= ZOBRIST[p.ordinal()][index];
+            _value += PIECE_VALUES[p.ordinal()][index];
+        }
+    }
+
+    /** Return the offset in _masks of the two words holding the pieces of
+     *  kind P, which must not be EMPTY. */
+    private static int bitsOf(Piece p) {
+        switch (p) {
+        case WHITE:
+            return WHITE_BITS;
+        case BLACK:
+            return BLACK_BITS;
+        default:
+            return KING_BITS;
+        }
     }
 
     /** Return the contents of the square at COL ROW. */
@@ -193,7 +540,7 @@ class Board {
 
     /** Set square S to P. */
     final void put(Piece p, Square s) {
-        _board[s.col()][s.row()] = p;
+        setBits(p, s.index());
         if (p == KING) {
             _kingPosition = s;
             if (s.isEdge()) {
@@ -223,14 +570,10 @@ class Board {
      *  board.  For this to be true, FROM-TO must be a rook move and the
      *  squares along it, other than FROM, must be empty. */
     boolean isUnblockedMove(Square from, Square to) {
-        if (from.isRookMove(to) && get(to) == EMPTY) {
-            int dir = from.direction(to);
-            SqList L = ROOK_SQUARES[from.index()][dir];
-            for (int i = 1; i < L.size(); i++) {
-                Square check = from.rookMove(dir, i);
-                if (check.equals(to) && get(to) == EMPTY) {
-                    break;
-                } else if (get(check) != EMPTY) {
+        if (from.isRookMove(to) && !occupied(to.index())) {
+            int[] ray = RAYS[from.index()][from.direction(to)];
+            for (int i = 0; ray[i] != to.index(); i++) {
+                if (occupied(ray[i])) {
                     return false;
                 }
             }
@@ -239,9 +582,21 @@ class Board {
         return false;
     }
 
-    /** Undo one move.  Has no effect on the initial board. */
+    /** Record the current position in the history of this game. */
     void addHistory() {
-        _history.push(encodedBoard());
+        unshare(_journalSize, _historySize);
+        if (_historySize == _history.length) {
+            _history = Arrays.copyOf(_history, 2 * _history.length);
+            _historyWords = Arrays.copyOf(_historyWords,
+                                          2 * _historyWords.length);
+        }
+        int j = _historySize * Position.WORDS;
+        _historyWords[j] = _packed[0];
+        _historyWords[j + 1] = _packed[1];
+        _historyWords[j + 2] = packedTurn();
+        long now = key();
+        _history[_historySize++] = now;
+        _positions.add(now);
     }
 
     /** Return true iff FROM is a valid starting square for a move. */
@@ -277,28 +632,79 @@ class Board {
     /** Move FROM-TO, assuming this is a legal move. */
     void makeMove(Square from, Square to) {
         assert isLegal(from, to);
-        Piece f = _board[from.col()][from.row()];
+        int undo = from.index() | to.index() << TO_SHIFT
+            | _kingPosition.index() << KING_SHIFT
+            | (_winner == null ? 0 : _winner.ordinal() + 1) << WINNER_SHIFT
+            | _turn.ordinal() << TURN_SHIFT
+            | (_repeated ? 1 : 0) << REPEATED_SHIFT;
+        unshare(_journalSize, _historySize);
+        int mark = _journalSize;
+        Piece f = get(from);
         checkRepeated();
         _moveCount += 1;
-        _posCapture = new ArrayList<Square>();
-        _board[from.col()][from.row()] = EMPTY;
+        setBits(EMPTY, from.index());
         revPut(f, to);
-        HashSet<Square> here = pieceLocations(get(to));
-        for (int i = 0; i < 4; i++) {
-            Square check = to.rookMove(i, 2);
-            if ((here.contains(check) || check == THRONE)
-                    && get(to.between(check)) != EMPTY
-                    && checkCapture(to, check)) {
-                capture(to, check);
-                if (get(to.between(check)) == KING) {
-                    _winner = BLACK;
-                }
+        int t = to.index();
+        for (int d = 0; d < 4; d++) {
+            if (capturesToward(t, d, f)) {
+                capture(RAYS[t][d][0]);
             }
         }
         _turn = f.opponent();
-        if (checkhistory(encodedBoard())) {
+        if (checkhistory()) {
             _winner = _turn;
         }
+        record(undo | (_journalSize - mark) << CAPTURES_SHIFT);
+    }
+
+    /** Return true iff the legal move with packed code CODE (see Move.code)
+     *  would capture at least one piece.  Does not change the board. */
+    boolean isCapture(int code) {
+        int from = Move.fromIndex(code), to = Move.toIndex(code);
+        Piece f = get(from);
+        boolean candidate = false;
+        for (int d = 0; d < 4 && !candidate; d++) {
+            int partner = PARTNERS[to][d];
+            candidate = partner >= 0 && occupied(RAYS[to][d][0])
+                && (partner == THRONE_INDEX
+                    || get(partner).side() == f.side());
+        }
+        if (!candidate) {
+            return false;
+        }
+        Square king = _kingPosition;
+        setBits(EMPTY, from);
+        setBits(f, to);
+        if (f == KING) {
+            _kingPosition = SQUARES[to];
+        }
+        boolean result = false;
+        for (int d = 0; d < 4 && !result; d++) {
+            result = capturesToward(to, d, f);
+        }
+        setBits(EMPTY, to);
+        setBits(f, from);
+        _kingPosition = king;
+        return result;
+    }
+
+    /** Return true iff a piece of kind MOVER that has just moved to the
+     *  square with index T captures the piece next to T in direction D. */
+    private boolean capturesToward(int t, int d, Piece mover) {
+        int partner = PARTNERS[t][d];
+        return partner >= 0
+            && (get(partner).side() == mover.side()
+                || partner == THRONE_INDEX)
+            && occupied(RAYS[t][d][0])
+            && checkCapture(t, d);
+    }
+
+    /** Push ENTRY onto the undo journal. */
+    private void record(int entry) {
+        if (_journalSize == _journal.length) {
+            _journal = Arrays.copyOf(_journal, 2 * _journal.length);
+        }
+        _journal[_journalSize++] = entry;
     }
 
     /** Move according to MOVE, assuming it is a legal move. */
@@ -306,66 +712,56 @@ class Board {
         makeMove(move.from(), move.to());
     }
 
-    /** True when current board is a repeated position (ending the game).
-     * @param sq0 bkj,
-     * @param sq2 ;k,l'
-     * @return boolean*/
-    private boolean checkCapture(Square sq0, Square sq2) {
-        Square s1 = sq0.between(sq2);
-        if (get(s1) != KING) {
-            if (isHostile(sq0, get(s1)) && isHostile(sq2, get(s1))) {
+    /** Return true iff the piece next to the square with index SQ0 in
+     *  direction DIR is captured by the piece just moved to SQ0 and the
+     *  square beyond it, assuming that square holds a friend of the mover
+     *  or is the throne. */
+    private boolean checkCapture(int sq0, int dir) {
+        int s1 = RAYS[sq0][dir][0], sq2 = PARTNERS[sq0][dir];
+        Piece victim = get(s1);
+        if (victim != KING) {
+            if (isHostile(sq0, victim) && isHostile(sq2, victim)) {
                 return true;
-            } else if (get(s1) == WHITE && THRONE == _kingPosition) {
-                if ((sq0 == THRONE && get(sq2).side() == BLACK
-                        && get(sq2.diag1(sq0)) == BLACK
-                        && get(sq2.diag2(sq0)) == BLACK)
-                        || (sq2 == THRONE && get(sq0).side() == BLACK
-                        && get(sq0.diag1(sq2)) == BLACK
-                        && get(sq0.diag2(sq2)) == BLACK)) {
-                    return true;
-                }
             }
-        } else {
-            if (Arrays.asList(_thrones).contains(kingPosition())
-                    && isHostile(kingPosition().rookMove(0, 1), WHITE)
-                    && isHostile(kingPosition().rookMove(1, 1), WHITE)
-                    && isHostile(kingPosition().rookMove(2, 1), WHITE)
-                    && isHostile(kingPosition().rookMove(3, 1), WHITE)) {
-                return true;
-            } else if (!Arrays.asList(_thrones).contains(kingPosition())
-                    && isHostile(sq0, get(s1)) && isHostile(sq2, get(s1))) {
-                return true;
+            return victim == WHITE && sq2 == THRONE_INDEX
+                && _kingPosition == THRONE && get(sq0) == BLACK
+                && get(FLANKS[sq0][dir][0]) == BLACK
+                && get(FLANKS[sq0][dir][1]) == BLACK;
+        }
+        int king = _kingPosition.index();
+        if (NEAR_THRONE[king]) {
+            for (int[] ray : RAYS[king]) {
+                if (!isHostile(ray[0], WHITE)) {
+                    return false;
+                }
             }
+            return true;
         }
-        return false;
+        return isHostile(sq0, KING) && isHostile(sq2, KING);
     }
 
-    /** Move FROM-TO, assuming this is a legal move.
-     * @param s dfdf
-     * @param p dfdf
-     * @return boolean */
-    private boolean isHostile(Square s, Piece p) {
-        if ((s == THRONE && THRONE != kingPosition())
-                || get(s).side() == p.opponent()) {
+    /** Return true iff the square with index S is hostile to a piece of
+     *  kind P: it holds an enemy of P, or it is the empty throne. */
+    private boolean isHostile(int s, Piece p) {
+        if (s == THRONE_INDEX && _kingPosition != THRONE) {
             return true;
         }
-        return false;
+        int w = s >>> 6;
+        long enemies = p == BLACK
+            ? _masks[WHITE_BITS + w] | _masks[KING_BITS + w]
+            : _masks[BLACK_BITS + w];
+        return (enemies & (1L << s)) != 0;
     }
 
-    /** Capture the piece between SQ0 and SQ2, assuming a piece just moved to
-     *  SQ0 and the necessary conditions are satisfied. */
-    private void capture(Square sq0, Square sq2) {
-        Square s1 = sq0.between(sq2);
-        if (get(s1) == KING) {
+    /** Capture the piece on the square with index S, recording it in the
+     *  undo journal. */
+    private void capture(int s) {
+        Piece victim = get(s);
+        if (victim == KING) {
             _winner = BLACK;
         }
-        _board[s1.col()][s1.row()] = EMPTY;
-    }
-
-    /** Undo one move.  Has no effect on the initial board.
-     * @return Stack<String> fgb*/
-    Stack<String> history() {
-        return _history;
+        record(s | victim.ordinal() << TO_SHIFT);
+        setBits(EMPTY, s);
     }
 
     /** Undo one move.  Has no effect on the initial board. */
@@ -377,30 +773,28 @@ class Board {
      * dfdf.
      * @return int gfbv*/
     int size() {
-        return _history.size();
+        return _historySize;
     }
 
     /** Undo one move.  Has no effect on the initial board. */
     void undo() {
-        if (_moveCount > 0) {
-            boolean king = false;
-            String prev = _history.pop();
-            _moveCount -= 1;
-            _board = new Piece[SIZE][SIZE];
-            _winner = null;
-            _turn = getPiece(Character.toString(prev.charAt(0)));
-            for (int i = 0; i < prev.length() - 1; i++) {
-                String symbol = Character.toString(prev.charAt(i + 1));
-                if (symbol.equals("K")) {
-                    _kingPosition = sq(i % SIZE, i / SIZE);
-                    king = true;
-                }
-                put(getPiece(symbol), sq(i % SIZE, i / SIZE));
-            }
-            if (!king) {
-                _winner = BLACK;
-                return;
+        if (_journalSize > 0) {
+            unshare(_journalSize - 1, _historySize - 1);
+            int undo = _journal[--_journalSize];
+            for (int n = undo >>> CAPTURES_SHIFT; n > 0; n--) {
+                int captured = _journal[--_journalSize];
+                setBits(PIECES[captured >>> TO_SHIFT], captured & SQ_MASK);
             }
+            int to = undo >>> TO_SHIFT & SQ_MASK;
+            setBits(get(to), undo & SQ_MASK);
+            setBits(EMPTY, to);
+            _kingPosition = SQUARES[undo >>> KING_SHIFT & SQ_MASK];
+            int winner = undo >>> WINNER_SHIFT & 7;
+            _winner = winner == 0 ? null : PIECES[winner - 1];
+            _turn = PIECES[undo >>> TURN_SHIFT & 3];
+            _repeated = (undo >>> REPEATED_SHIFT & 1) != 0;
+            undoPosition();
+            _moveCount -= 1;
         }
     }
 
@@ -408,44 +802,226 @@ class Board {
      *  unless it is a repeated position or we are at the first move. */
     private void undoPosition() {
         if (!_repeated || _moveCount > 0) {
-            _history.pop();
+            _positions.remove(_history[--_historySize]);
         }
     }
 
     /** Clear the undo stack and board-position counts. Does not modify the
      *  current position or win status. */
     void clearUndo() {
+        unshare(0, 0);
+        _journalSize = 0;
+        _historySize = 0;
+        _positions.clear();
     }
 
     /** Return a new mutable list of all legal moves on the current board for
      *  SIDE (ignoring whose turn it is at the moment). */
     List<Move> legalMoves(Piece side) {
-        Iterator<Square> check = pieceLocations(side).iterator();
-        List<Move> here = new ArrayList<Move>();
-        while (check.hasNext()) {
-            Square now = check.next();
-            for (int i = 0; i < 4; i++) {
-                int idx = now.index();
-                Move.MoveList save = Move.ROOK_MOVES[idx][i];
-                for (int j = 0; j < save.size(); j++) {
-                    if (isLegal(save.get(j))) {
-                        here.add(save.get(j));
+        int[] moves = new int[MAX_MOVES];
+        int n = legalMoves(side, moves);
+        List<Move> here = new ArrayList<Move>(n);
+        for (int k = 0; k < n; k++) {
+            here.add(Move.mv(moves[k]));
+        }
+        return here;
+    }
+
+    /** Store the packed codes (see Move.code) of all legal moves on the
+     *  current board for SIDE (ignoring whose turn it is at the moment) at
+     *  the start of MOVES, which must have room for MAX_MOVES codes.
+     *  Return the number of moves stored. */
+    int legalMoves(Piece side, int[] moves) {
+        int n = 0;
+        long occ0 = occupancy(0), occ1 = occupancy(1);
+        for (int w = 0; w < 2; w++) {
+            for (long m = sideMask(side, w); m != 0; m &= m - 1) {
+                int from = (w << 6) + Long.numberOfTrailingZeros(m);
+                boolean king = (_masks[KING_BITS + w] & (m & -m)) != 0;
+                for (int[] ray : RAYS[from]) {
+                    for (int k = 0, to = ray[0]; to >= 0; to = ray[++k]) {
+                        if (((to < 64 ? occ0 : occ1) & (1L << to)) != 0) {
+                            break;
+                        }
+                        if (king || to != THRONE_INDEX) {
+                            moves[n++] = Move.code(from, to);
+                        }
                     }
                 }
             }
         }
-        return here;
+        return n;
+    }
+
+    /** Store the packed codes of the legal moves for SIDE (ignoring whose
+     *  turn it is) that would capture at least one piece at the start of
+     *  MOVES, which must have room for MAX_MOVES codes.  Return the number
+     *  of moves stored. */
+    int captureMoves(Piece side, int[] moves) {
+        int n = 0;
+        long occ0 = occupancy(0), occ1 = occupancy(1);
+        for (int w = 0; w < 2; w++) {
+            for (long m = sideMask(side, w); m != 0; m &= m - 1) {
+                int from = (w << 6) + Long.numberOfTrailingZeros(m);
+                boolean king = (_masks[KING_BITS + w] & (m & -m)) != 0;
+                for (int[] ray : RAYS[from]) {
+                    for (int k = 0, to = ray[0]; to >= 0; to = ray[++k]) {
+                        if (((to < 64 ? occ0 : occ1) & (1L << to)) != 0) {
+                            break;
+                        }
+                        int code = Move.code(from, to);
+                        if ((king || to != THRONE_INDEX) && isCapture(code)) {
+                            moves[n++] = code;
+                        }
+                    }
+                }
+            }
+        }
+        return n;
     }
 
-    /** Return true iff SIDE has a legal move. */
+    /** Return true iff the king has a legal move to an edge square, which
+     *  would win the game for white. */
+    boolean kingCanEscape() {
+        return kingLines() > 0;
+    }
+
+    /** Return the number of directions in which the king has a legal move
+     *  to an edge square. */
+    int kingLines() {
+        int from = kingIndex();
+        if (from < 0) {
+            return 0;
+        }
+        int lines = 0;
+        for (int[] ray : RAYS[from]) {
+            int k = 0;
+            while (ray[k] >= 0 && !occupied(ray[k])) {
+                k += 1;
+            }
+            if (k > 0 && ray[k] < 0) {
+                lines += 1;
+            }
+        }
+        return lines;
+    }
+
+    /** Return the least number of moves the king needs to reach an edge
+     *  square if no other piece moves, or ESCAPE_LIMIT + 1 if that is more
+     *  than ESCAPE_LIMIT or there is no king.  Searches breadth first from
+     *  the king's square along RAYS, with the king's square counting as
+     *  empty. */
+    int kingDistance() {
+        int king = kingIndex();
+        if (king < 0) {
+            return ESCAPE_LIMIT + 1;
+        } else if (EDGE[king]) {
+            return 0;
+        }
+        long occ0 = occupancy(0), occ1 = occupancy(1);
+        if (king < 64) {
+            occ0 &= ~(1L << king);
+        } else {
+            occ1 &= ~(1L << king);
+        }
+        _searchMark += 1;
+        if (_searchMark == 0) {
+            Arrays.fill(_searched, 0);
+            _searchMark = 1;
+        }
+        _searched[king] = _searchMark;
+        _searchQueue[0] = king;
+        int head = 0, tail = 1;
+        for (int dist = 1; dist <= ESCAPE_LIMIT; dist += 1) {
+            for (int end = tail; head < end; head += 1) {
+                for (int[] ray : RAYS[_searchQueue[head]]) {
+                    for (int k = 0, to = ray[0]; to >= 0; to = ray[++k]) {
+                        if (((to < 64 ? occ0 : occ1) & (1L << to)) != 0) {
+                            break;
+                        } else if (EDGE[to]) {
+                            return dist;
+                        } else if (_searched[to] != _searchMark) {
+                            _searched[to] = _searchMark;
+                            _searchQueue[tail++] = to;
+                        }
+                    }
+                }
+            }
+        }
+        return ESCAPE_LIMIT + 1;
+    }
+
+    /** Return the index of the king's square, or -1 if there is no king. */
+    private int kingIndex() {
+        long king0 = _masks[KING_BITS], king1 = _masks[KING_BITS + 1];
+        if (king0 != 0) {
+            return Long.numberOfTrailingZeros(king0);
+        } else if (king1 != 0) {
+            return 64 + Long.numberOfTrailingZeros(king1);
+        }
+        return -1;
+    }
+
+    /** Return the sum of the material and positional values of the pieces
+     *  on the board, positive values favoring white.  Kept up to date as
+     *  pieces move and are captured, so takes constant time. */
+    int pieceValues() {
+        return _value;
+    }
+
+    /** Return true iff SIDE has a legal move (ignoring whose turn it is).
+     *  Stops at the first move found and does not change the board. */
     boolean hasMove(Piece side) {
-        if (legalMoves(side).size() != 0) {
-            return true;
+        long occ0 = occupancy(0), occ1 = occupancy(1);
+        for (int w = 0; w < 2; w++) {
+            for (long m = sideMask(side, w); m != 0; m &= m - 1) {
+                int from = (w << 6) + Long.numberOfTrailingZeros(m);
+                boolean king = (_masks[KING_BITS + w] & (m & -m)) != 0;
+                for (int[] ray : RAYS[from]) {
+                    for (int k = 0, to = ray[0]; to >= 0; to = ray[++k]) {
+                        if (((to < 64 ? occ0 : occ1) & (1L << to)) != 0) {
+                            break;
+                        }
+                        if (king || to != THRONE_INDEX) {
+                            return true;
+                        }
+                    }
+                }
+            }
         }
-        _winner = side.opponent();
         return false;
     }
 
+    /** Return the number of legal moves SIDE has (ignoring whose turn it
+     *  is), without generating them. */
+    int mobility(Piece side) {
+        int n = 0;
+        long occ0 = occupancy(0), occ1 = occupancy(1);
+        for (int w = 0; w < 2; w++) {
+            for (long m = sideMask(side, w); m != 0; m &= m - 1) {
+                int from = (w << 6) + Long.numberOfTrailingZeros(m);
+                boolean king = (_masks[KING_BITS + w] & (m & -m)) != 0;
+                for (int[] ray : RAYS[from]) {
+                    for (int k = 0, to = ray[0]; to >= 0; to = ray[++k]) {
+                        if (((to < 64 ? occ0 : occ1) & (1L << to)) != 0) {
+                            break;
+                        }
+                        if (king || to != THRONE_INDEX) {
+                            n += 1;
+                        }
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Return word W (0 or 1) of the mask of occupied squares. */
+    private long occupancy(int w) {
+        return _masks[WHITE_BITS + w] | _masks[BLACK_BITS + w]
+            | _masks[KING_BITS + w];
+    }
+
     /** Undo one move.  Has no effect on the initial board. */
     @Override
     public String toString() {
@@ -492,43 +1068,43 @@ class Board {
         }
     }
 
-    /** Undo one move.  Has no effect on the initial board.
-     * @param side rgerg.
-     * @return dfvdfv*/
+    /** Return the number of pieces on SIDE, the king counting as WHITE.
+     * @param side WHITE, KING or BLACK.
+     * @return the count, which is maintained as pieces move*/
     int getPieceLocations(Piece side) {
-        return pieceLocations(side).size();
+        if (side.side() == WHITE) {
+            return _counts[WHITE.ordinal()] + _counts[KING.ordinal()];
+        }
+        return _counts[BLACK.ordinal()];
     }
 
-    /** Return the locations of all pieces on SIDE. */
-    private HashSet<Square> pieceLocations(Piece side) {
-        assert side != EMPTY;
-        HashSet<Square> now = new HashSet<Square>();
-        for (int i = 0; i < SQUARE_LIST.size(); i++) {
-            if (get(SQUARE_LIST.get(i)).side() == side.side()
-                    || (get(SQUARE_LIST.get(i)).side() == KING
-                    && side.side() == WHITE)) {
-                now.add(SQUARE_LIST.get(i));
-            }
+    /** Return word W (0 or 1) of the mask of all squares holding pieces on
+     *  SIDE, the king counting as WHITE. */
+    private long sideMask(Piece side, int w) {
+        if (side.side() == WHITE) {
+            return _masks[WHITE_BITS + w] | _masks[KING_BITS + w];
         }
-
-        return now;
+        return _masks[BLACK_BITS + w];
     }
 
-    /** Return the contents of _board in the order of SQUARE_LIST as a sequence
-     *  of characters: the toString values of the current turn and Pieces. */
-    String encodedBoard() {
-        char[] result = new char[Square.SQUARE_LIST.size() + 1];
-        result[0] = turn().toString().charAt(0);
-        for (Square sq : SQUARE_LIST) {
-            result[sq.index() + 1] = get(sq).toString().charAt(0);
+    /** Store the indices of the squares of all pieces on SIDE in increasing
+     *  order at the start of SQUARES, and return how many there are. */
+    int pieceLocations(Piece side, int[] squares) {
+        assert side != EMPTY;
+        int n = 0;
+        for (int w = 0; w < 2; w++) {
+            for (long m = sideMask(side, w); m != 0; m &= m - 1) {
+                squares[n++] = (w << 6) + Long.numberOfTrailingZeros(m);
+            }
         }
-        return new String(result);
+        return n;
     }
 
-    /** Undo one move.  Has no effect on the initial board.
-     * @return Piece[][]*/
-    Piece[][] board() {
-        return _board;
+    /** Return the contents of the board in the order of SQUARE_LIST as a
+     *  sequence of characters: the toString values of the current turn and
+     *  Pieces. */
+    String encodedBoard() {
+        return position().toString();
     }
 
     /** Piece whose turn it is (WHITE or BLACK). */
@@ -544,16 +1120,51 @@ class Board {
     private int _moveLim;
     /** True when current board is a repeated position (ending the game). */
     private Square _kingPosition;
-    /** True when current board is a repeated position (ending the game). */
-    private HashSet<Square> _sideLocations;
+    /** Number of pieces of each kind on the board, indexed by ordinal. */
+    private final int[] _counts = new int[PIECES.length];
     /** True when current board is a repeated position (ending the game). */
     private List<Move> _legalMoves;
-    /** True when current board is a repeated position (ending the game). */
-    private Stack<String> _history;
-    /** True when current board is a repeated position (ending the game). */
-    private ArrayList<Square> _posCapture;
-    /** True when current board is a repeated position (ending the game). */
-    private Piece[][] _board;
-    /** Undo one move.  Has no effect on the initial board. */
-    private ArrayList<String> _shistory;
+    /** Keys of the positions preceding each move not yet undone, oldest
+     *  first. */
+    private long[] _history;
+    /** The positions whose keys are in _history, Position.WORDS packed words
+     *  apiece. */
+    private long[] _historyWords;
+    /** Number of keys in use in _history. */
+    private int _historySize;
+    /** The keys in _history, for constant-time repetition checks. */
+    private PositionCounts _positions;
+    /** True iff _journal, _history, _historyWords and _positions belong to
+     *  another board, from which I copied them, and so must be copied
+     *  before I change them. */
+    private boolean _shared;
+    /** Numbers of entries of _journal and of _history, when they are mine,
+     *  that boards copied from me may still use. */
+    private int _journalShared, _historyShared;
+    /** Zobrist key of the pieces on the board (without the side to move). */
+    private long _key;
+    /** Sum of the PIECE_VALUES of the pieces on the board. */
+    private int _value;
+    /** Work space for kingDistance: _searched[i] is _searchMark iff the
+     *  square with index i has been reached by the current search, and
+     *  _searchQueue holds the squares reached, in order. */
+    private final int[] _searched = new int[SIZE * SIZE],
+        _searchQueue = new int[SIZE * SIZE];
+    /** Mark of the current search by kingDistance. */
+    private int _searchMark;
+    /** The undo journal.  Each move pushes one entry per captured piece
+     *  (its square index and, shifted by TO_SHIFT, its ordinal) followed by
+     *  an entry packing the move's FROM and TO indices, the previous king
+     *  square, winner (ordinal + 1, or 0), turn and repetition flag, and
+     *  the number of captured-piece entries. */
+    private int[] _journal;
+    /** Number of entries in use in _journal. */
+    private int _journalSize;
+    /** The position as bitboards: for each of WHITE_BITS, BLACK_BITS and
+     *  KING_BITS, two words whose bit I (mod 64) of word I / 64 is set iff
+     *  the square with index I holds that kind of piece. */
+    private final long[] _masks = new long[6];
+    /** The current position packed as in Position, without the side to
+     *  move. */
+    private final long[] _packed = new long[Position.WORDS];
 }
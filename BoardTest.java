@@ -0,0 +1,136 @@
+package tablut;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the terms of Board used in evaluating positions.
+ *  @author Lucy Chen
+ */
+public class BoardTest {
+
+    /** Number of random games played by each test, and the greatest
+     *  number of moves in each. */
+    static final int GAMES = 50, GAME_LENGTH = 120;
+
+    /** Return a board set up from scratch in the current position of
+     *  BOARD. */
+    static Board rebuilt(Board board) {
+        Board result = new Board();
+        result.setPosition(board.position());
+        return result;
+    }
+
+    /** Make a random legal move on BOARD, chosen with RANDOM, using MOVES
+     *  as work space.  Return false, making no move, if there is none. */
+    static boolean randomMove(Board board, Random random, int[] moves) {
+        int n = board.legalMoves(board.turn(), moves);
+        if (n == 0) {
+            return false;
+        }
+        board.makeMove(Move.mv(moves[random.nextInt(n)]));
+        return true;
+    }
+
+    @Test
+    public void testPieceValues() {
+        Random random = new Random(20);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int g = 0; g < GAMES; g += 1) {
+            Board board = new Board();
+            assertEquals(rebuilt(board).pieceValues(), board.pieceValues());
+            for (int k = 0; k < GAME_LENGTH && board.winner() == null;
+                 k += 1) {
+                if (!randomMove(board, random, moves)) {
+                    break;
+                }
+                if (random.nextInt(4) == 0) {
+                    board.undo();
+                }
+                assertEquals(rebuilt(board).pieceValues(),
+                             board.pieceValues());
+                assertEquals(board.pieceValues(),
+                             new Board(board).pieceValues());
+            }
+            while (board.moveCount() > 0) {
+                board.undo();
+                assertEquals(rebuilt(board).pieceValues(),
+                             board.pieceValues());
+            }
+            assertEquals(new Board().pieceValues(), board.pieceValues());
+        }
+    }
+
+    /** Return the least number of moves the king needs to reach the edge
+     *  of BOARD if no other piece moves, or Board.ESCAPE_LIMIT + 1 if that
+     *  is more than Board.ESCAPE_LIMIT, found by a plain breadth-first
+     *  search over squares. */
+    static int kingDistance(Board board) {
+        int limit = Board.ESCAPE_LIMIT + 1;
+        int king = board.kingPosition().index();
+        int[] dist = new int[Board.SIZE * Board.SIZE];
+        Arrays.fill(dist, -1);
+        dist[king] = 0;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(king);
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            int col = s % Board.SIZE, row = s / Board.SIZE;
+            if (col == 0 || row == 0 || col == Board.SIZE - 1
+                || row == Board.SIZE - 1) {
+                return Math.min(dist[s], limit);
+            }
+            for (int[] dir : DIRECTIONS) {
+                for (int c = col + dir[0], r = row + dir[1];
+                     c >= 0 && r >= 0 && c < Board.SIZE && r < Board.SIZE;
+                     c += dir[0], r += dir[1]) {
+                    int t = c + r * Board.SIZE;
+                    if (board.get(t) != Piece.EMPTY) {
+                        break;
+                    }
+                    if (dist[t] < 0) {
+                        dist[t] = dist[s] + 1;
+                        queue.add(t);
+                    }
+                }
+            }
+        }
+        return limit;
+    }
+
+    /** Column and row steps in each direction. */
+    static final int[][] DIRECTIONS = { { 1, 0 }, { -1, 0 }, { 0, 1 },
+                                        { 0, -1 } };
+
+    @Test
+    public void testKingDistance() {
+        Board board = new Board();
+        assertEquals(kingDistance(board), board.kingDistance());
+        board.clear(Piece.WHITE);
+        board.put(Piece.KING, Square.sq(2, 2));
+        assertEquals(1, board.kingDistance());
+        board.put(Piece.BLACK, Square.sq(0, 2));
+        board.put(Piece.BLACK, Square.sq(2, 0));
+        board.put(Piece.BLACK, Square.sq(8, 2));
+        board.put(Piece.BLACK, Square.sq(2, 8));
+        assertEquals(2, board.kingDistance());
+        Random random = new Random(21);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int g = 0; g < GAMES; g += 1) {
+            board = new Board();
+            for (int k = 0; k < GAME_LENGTH && board.winner() == null;
+                 k += 1) {
+                if (!randomMove(board, random, moves)) {
+                    break;
+                }
+                if (board.winner() == null) {
+                    assertEquals(kingDistance(board), board.kingDistance());
+                }
+            }
+        }
+    }
+
+}
@@ -175,6 +175,9 @@ final class Controller {
         new Command("auto\\s+(white|black)$", this::doAuto),
         new Command("limit\\s+(\\d+)$", this::doLimit),
         new Command("toggle\\s+" + SQ + "$", this::doToggle),
+        new Command("perft\\s+(\\d+)((?:\\s+(?:divide|parallel))*)$",
+                    this::doPerft),
+        new Command("analyze\\s+(\\d+)$", this::doAnalyze),
         new Command(Move.MOVE_PATTERN.pattern(), this::doMove)
     };
 
@@ -293,6 +296,48 @@ final class Controller {
         }
     }
 
+    /** Command "perft N [divide] [parallel]", where N is the first group of
+     *  MAT and the options are in the second.  Prints the number of move
+     *  sequences of length N from the current position and the rate at
+     *  which they were generated. */
+    private void doPerft(Matcher mat) {
+        int depth;
+        try {
+            depth = Integer.parseInt(mat.group(1));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        Perft.report(System.out, _board, depth,
+                     mat.group(2).contains("divide"),
+                     mat.group(2).contains("parallel"));
+    }
+
+    /** Command "analyze N", where N (> 0) is the first group of MAT.
+     *  Prints the best move from the current position found by a
+     *  deterministic parallel search to depth N, with its value and the
+     *  time taken. */
+    private void doAnalyze(Matcher mat) {
+        int depth;
+        try {
+            depth = Integer.parseInt(mat.group(1));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        if (depth == 0) {
+            throw error("depth must be positive");
+        }
+        AI analyzer = new AI();
+        long start = System.nanoTime();
+        Move move = analyzer.analyze(_board, depth);
+        double secs = (System.nanoTime() - start) * 1e-9;
+        if (move == null) {
+            System.out.printf("analyze %d: no moves%n", depth);
+        } else {
+            System.out.printf("analyze %d: %s, value %d, in %.3f s%n",
+                              depth, move, analyzer.lastValue(), secs);
+        }
+    }
+
     /** Dump the contents of the board on standard output. */
     private void doDump(Matcher unused) {
         System.out.printf("===%n%s===%n", _board);
@@ -0,0 +1,318 @@
+package tablut;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static tablut.Piece.*;
+
+/** A Player that chooses moves by Monte Carlo tree search.  Each iteration
+ *  descends the tree of positions from the current one by UCT selection,
+ *  adds the children of the leaf it reaches, plays a lightly guided random
+ *  game from there on a scratch Board, and credits the result to the nodes
+ *  on its path.  The move played is the most visited.
+ *
+ *  Nodes live in an arena of parallel primitive arrays indexed by node
+ *  number rather than in objects, and the subtree under the move played
+ *  and the reply made to it is kept for the next move.  Several threads
+ *  may search the tree at once.  A thread passing through a node adds a
+ *  virtual loss to it until its result is known, steering the others to
+ *  different lines.  Statistics are updated without locking, so a few
+ *  updates may be lost to races; a node's children are published by a
+ *  volatile write of their number.
+ *  @author Lucy Chen
+ */
+class MCTSPlayer extends Player {
+
+    /** Default number of nodes in the arena. */
+    static final int DEFAULT_NODES = 1 << 20;
+
+    /**
+     * A new MCTSPlayer with no piece or controller (intended to produce
+     * a template).
+     */
+    MCTSPlayer() {
+        this(null, null);
+    }
+
+    /**
+     * A new MCTSPlayer playing PIECE under control of CONTROLLER.
+     */
+    MCTSPlayer(Piece piece, Controller controller) {
+        super(piece, controller);
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        MCTSPlayer result = new MCTSPlayer(piece, controller);
+        result._timeLimit = _timeLimit;
+        result._threads = _threads;
+        return result;
+    }
+
+    /** Set the time I may spend searching for each move to MILLIS
+     *  milliseconds.  Players created from me inherit this setting. */
+    void setTimeLimit(long millis) {
+        _timeLimit = millis;
+    }
+
+    /** Search for each move using THREADS (> 0) threads.  Players created
+     *  from me inherit this setting. */
+    void setThreads(int threads) {
+        _threads = threads;
+    }
+
+    @Override
+    boolean isManual() {
+        return false;
+    }
+
+    @Override
+    String myMove() {
+        long start = System.nanoTime();
+        Board board = board();
+        if (_move == null) {
+            _move = new int[DEFAULT_NODES];
+            _first = new int[DEFAULT_NODES];
+            _visits = new int[DEFAULT_NODES];
+            _wins = new int[DEFAULT_NODES];
+            _count = new AtomicIntegerArray(DEFAULT_NODES);
+            newTree();
+        } else {
+            reuseTree(board);
+        }
+        int[] moves = new int[Board.MAX_MOVES];
+        if (!expand(_root, board, moves) && _count.get(_root) <= 0) {
+            newTree();
+            expand(_root, board, moves);
+        }
+        _deadline = start + _timeLimit * 1000000L;
+        Thread[] helpers = new Thread[_threads - 1];
+        for (int k = 0; k < helpers.length; k += 1) {
+            Board copy = new Board(board);
+            long seed = _controller.randInt(Integer.MAX_VALUE);
+            helpers[k] = new Thread(() -> search(copy, seed), "mcts-" + k);
+            helpers[k].setDaemon(true);
+            helpers[k].start();
+        }
+        search(new Board(board), _controller.randInt(Integer.MAX_VALUE));
+        for (Thread helper : helpers) {
+            try {
+                helper.join();
+            } catch (InterruptedException excp) {
+                throw new Error("unexpected interrupt");
+            }
+        }
+        int best = -1;
+        for (int c = _first[_root], end = c + _count.get(_root); c < end;
+             c += 1) {
+            if (best == -1 || _visits[c] > _visits[best]) {
+                best = c;
+            }
+        }
+        Move move = Move.mv(_move[best]);
+        _controller.reportMove(move);
+        Board after = new Board(board);
+        after.makeMove(move);
+        _played = after.position();
+        _root = best;
+        return move.toString();
+    }
+
+    /** Make the tree a single unexpanded root. */
+    private void newTree() {
+        _root = 0;
+        _size.set(1);
+        _visits[0] = _wins[0] = 0;
+        _count.set(0, UNEXPANDED);
+        _played = null;
+    }
+
+    /** Make the root the node for BOARD, the current position, if it is
+     *  the reply to my last move and the arena is no more than half full;
+     *  otherwise start a new tree. */
+    private void reuseTree(Board board) {
+        if (_played == null || _size.get() > _move.length / 2
+            || _count.get(_root) <= 0) {
+            newTree();
+            return;
+        }
+        Board prev = new Board(board);
+        prev.undo();
+        if (prev.position().equals(_played)) {
+            Position now = board.position();
+            for (int c = _first[_root], end = c + _count.get(_root);
+                 c < end; c += 1) {
+                prev.makeMove(Move.mv(_move[c]));
+                boolean found = prev.position().equals(now);
+                prev.undo();
+                if (found) {
+                    _root = c;
+                    return;
+                }
+            }
+        }
+        newTree();
+    }
+
+    /** Run iterations from a copy of the current position, BOARD, until
+     *  the deadline, choosing random moves with a generator seeded with
+     *  SEED. */
+    private void search(Board board, long seed) {
+        Random random = new Random(seed);
+        int[] path = new int[MAX_PATH];
+        int[] moves = new int[Board.MAX_MOVES];
+        Piece rootSide = board.turn();
+        while (System.nanoTime() < _deadline) {
+            int node = _root;
+            int length = 0;
+            path[length++] = node;
+            while (_count.get(node) > 0 && length < MAX_PATH) {
+                node = select(node);
+                _visits[node] += VIRTUAL_LOSS;
+                board.makeMove(Move.mv(_move[node]));
+                path[length++] = node;
+                if (board.winner() != null) {
+                    break;
+                }
+            }
+            if (board.winner() == null) {
+                expand(node, board, moves);
+            }
+            Piece winner = playout(board, random, moves);
+            for (int k = 1; k < length; k += 1) {
+                board.undo();
+            }
+            _visits[_root] += 1;
+            for (int k = 1; k < length; k += 1) {
+                Piece mover = k % 2 == 1 ? rootSide : rootSide.opponent();
+                int n = path[k];
+                _visits[n] += 1 - VIRTUAL_LOSS;
+                _wins[n] += winner == null ? 1 : winner == mover ? 2 : 0;
+            }
+        }
+    }
+
+    /** Return the child of NODE, which must have children, with the
+     *  greatest upper confidence bound (UCT) on its value to the side
+     *  choosing it.  Unvisited children come first. */
+    private int select(int node) {
+        int first = _first[node], end = first + _count.get(node);
+        double logVisits = Math.log(Math.max(1, _visits[node]));
+        int best = first;
+        double bestBound = Double.NEGATIVE_INFINITY;
+        for (int c = first; c < end; c += 1) {
+            int visits = _visits[c];
+            if (visits <= 0) {
+                return c;
+            }
+            double bound = _wins[c] / (2.0 * visits)
+                + EXPLORATION * Math.sqrt(logVisits / visits);
+            if (bound > bestBound) {
+                bestBound = bound;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /** Add children to NODE, whose position is that of BOARD, for each
+     *  legal move, using MOVES as work space.  Return true iff this call
+     *  expanded NODE; does nothing if NODE is already expanded or being
+     *  expanded by another thread.  If the arena is full, NODE is left
+     *  with no children. */
+    private boolean expand(int node, Board board, int[] moves) {
+        if (!_count.compareAndSet(node, UNEXPANDED, EXPANDING)) {
+            return false;
+        }
+        int n = board.legalMoves(board.turn(), moves);
+        int first = _size.getAndAdd(n);
+        if (first + n > _move.length) {
+            _count.set(node, 0);
+            return false;
+        }
+        for (int i = 0; i < n; i += 1) {
+            int c = first + i;
+            _move[c] = moves[i];
+            _visits[c] = _wins[c] = 0;
+            _count.lazySet(c, UNEXPANDED);
+        }
+        _first[node] = first;
+        _count.set(node, n);
+        return true;
+    }
+
+    /** Play a random game of at most PLAYOUT_LIMIT moves from BOARD, using
+     *  MOVES as work space and RANDOM to choose moves, and return the
+     *  winner, or null if there is none by then.  White takes any escape
+     *  for the king, and either side captures when it can half the time.
+     *  BOARD is left as it was found. */
+    private Piece playout(Board board, Random random, int[] moves) {
+        int made = 0;
+        Piece winner = board.winner();
+        while (winner == null && made < PLAYOUT_LIMIT) {
+            Piece side = board.turn();
+            int n = 0;
+            if (side == WHITE && board.kingCanEscape()) {
+                winner = WHITE;
+                break;
+            }
+            if (random.nextBoolean()) {
+                n = board.captureMoves(side, moves);
+            }
+            if (n == 0) {
+                n = board.legalMoves(side, moves);
+            }
+            if (n == 0) {
+                winner = side.opponent();
+                break;
+            }
+            board.makeMove(Move.mv(moves[random.nextInt(n)]));
+            made += 1;
+            winner = board.winner();
+        }
+        for (; made > 0; made -= 1) {
+            board.undo();
+        }
+        return winner;
+    }
+
+    /** Values of _count for a node whose children have not been added and
+     *  one whose children are being added. */
+    private static final int UNEXPANDED = -1, EXPANDING = -2;
+
+    /** Visits added to each node on a path while its playout is under
+     *  way. */
+    private static final int VIRTUAL_LOSS = 1;
+
+    /** Weight of the exploration term in the UCT bound. */
+    private static final double EXPLORATION = 1.4;
+
+    /** Greatest number of nodes on a path from the root. */
+    private static final int MAX_PATH = 256;
+
+    /** Greatest number of moves in a playout. */
+    private static final int PLAYOUT_LIMIT = 200;
+
+    /** Milliseconds I may spend searching for each move. */
+    private long _timeLimit = AI.DEFAULT_TIME_LIMIT;
+    /** Number of threads searching for each move. */
+    private int _threads = 1;
+    /** System.nanoTime() at which the current search ends. */
+    private volatile long _deadline;
+    /** The arena, created on first use.  For node N, _move[N] is the
+     *  packed move leading to it, _count.get(N) is its number of children
+     *  (or UNEXPANDED or EXPANDING), which occupy nodes _first[N] and up,
+     *  _visits[N] is the number of iterations through it (including
+     *  virtual losses), and _wins[N] is the total of their results, in
+     *  half points, for the side that made _move[N]. */
+    private int[] _move, _first, _visits, _wins;
+    /** Numbers of children; see _move. */
+    private AtomicIntegerArray _count;
+    /** Number of nodes allocated in the arena. */
+    private final AtomicInteger _size = new AtomicInteger();
+    /** The node for the position being searched. */
+    private int _root;
+    /** The position after my last move, or null if the tree is new. */
+    private Position _played;
+}
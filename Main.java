@@ -19,14 +19,79 @@ public class Main {
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --testing --strict --log={0,1} --={0,2}",
+            new CommandArgs("--display --testing --strict --log={0,1} "
+                            + "--perft=(\\d+){0,1} --divide --parallel "
+                            + "--time=(\\d+){0,1} --hash=(\\d+){0,1} "
+                            + "--threads=(\\d+){0,1} "
+                            + "--no-null --no-lmr --no-futility --ponder "
+                            + "--mcts --tablebase={0,1} "
+                            + "--make-tablebase=(\\d+){0,1} --book={0,1} "
+                            + "--random-book --make-book=(\\d+){0,1} "
+                            + "--={0,2}",
                             args);
         if (!options.ok()) {
             System.err.println("Usage: java tablut.Main [--display]"
-                               + " [--log=FILE] [--strict] [INPUT [OUTPUT]]");
+                               + " [--log=FILE] [--strict] [--time=MILLIS]"
+                               + " [--hash=MB] [--threads=N]"
+                               + " [--no-null] [--no-lmr] [--no-futility]"
+                               + " [--ponder] [--mcts] [--tablebase=FILE]"
+                               + " [--book=FILE [--random-book]]"
+                               + " [INPUT [OUTPUT]]");
+            System.err.println("       java tablut.Main --perft=N"
+                               + " [--divide] [--parallel]");
+            System.err.println("       java tablut.Main --make-tablebase=N"
+                               + " --tablebase=FILE");
+            System.err.println("       java tablut.Main --make-book=PLIES"
+                               + " --book=FILE");
             System.exit(1);
         }
 
+        if (options.contains("--perft")) {
+            Perft.report(System.out, new Board(),
+                         Integer.parseInt(options.getFirst("--perft")),
+                         options.contains("--divide"),
+                         options.contains("--parallel"));
+            System.exit(0);
+        }
+
+        if (options.contains("--make-tablebase")) {
+            int pieces = Integer.parseInt(options.getFirst("--make-tablebase"));
+            if (!options.contains("--tablebase") || pieces < 1
+                || pieces > Tablebase.MAX_PIECES) {
+                System.err.printf("--make-tablebase needs --tablebase=FILE"
+                                  + " and 1 to %d pieces%n",
+                                  Tablebase.MAX_PIECES);
+                System.exit(1);
+            }
+            try {
+                Tablebase.build(pieces, options.getFirst("--tablebase"),
+                                System.out);
+            } catch (IOException excp) {
+                System.err.printf("Could not write tablebase: %s%n",
+                                  excp.getMessage());
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+
+        if (options.contains("--make-book")) {
+            if (!options.contains("--book")) {
+                System.err.println("--make-book needs --book=FILE");
+                System.exit(1);
+            }
+            try {
+                OpeningBook.build(
+                    Integer.parseInt(options.getFirst("--make-book")),
+                    OpeningBook.DEFAULT_DEPTH, options.getFirst("--book"),
+                    System.out);
+            } catch (IOException excp) {
+                System.err.printf("Could not write opening book: %s%n",
+                                  excp.getMessage());
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+
         List<String> files = options.get("--");
         if (!files.isEmpty()) {
             try {
@@ -96,7 +161,49 @@ public class Main {
             }
         }
 
+        AI autoPlayer = new AI();
+        MCTSPlayer treePlayer = new MCTSPlayer();
+        if (options.contains("--time")) {
+            long millis = Long.parseLong(options.getFirst("--time"));
+            autoPlayer.setTimeLimit(millis);
+            treePlayer.setTimeLimit(millis);
+        }
+        if (options.contains("--hash")) {
+            autoPlayer.setTableSize(
+                Integer.parseInt(options.getFirst("--hash")));
+        }
+        if (options.contains("--threads")) {
+            int threads =
+                Math.max(1, Integer.parseInt(options.getFirst("--threads")));
+            autoPlayer.setThreads(threads);
+            treePlayer.setThreads(threads);
+        }
+        autoPlayer.setPruning(!options.contains("--no-null"),
+                              !options.contains("--no-lmr"),
+                              !options.contains("--no-futility"));
+        autoPlayer.setPondering(options.contains("--ponder"));
+        if (options.contains("--tablebase")) {
+            try {
+                autoPlayer.setTablebase(
+                    Tablebase.load(options.getFirst("--tablebase")));
+            } catch (IOException excp) {
+                throw error("Could not read tablebase: %s",
+                            excp.getMessage());
+            }
+        }
+        if (options.contains("--book")) {
+            try {
+                autoPlayer.setBook(OpeningBook.load(options.getFirst("--book")),
+                                   options.contains("--random-book"));
+            } catch (IOException excp) {
+                throw error("Could not read opening book: %s",
+                            excp.getMessage());
+            }
+        }
+
         return new Controller(view, log, reporter, manualPlayer,
-                              new AI(), options.contains("--strict"));
+                              options.contains("--mcts") ? treePlayer
+                              : autoPlayer,
+                              options.contains("--strict"));
     }
 }
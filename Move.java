@@ -48,6 +48,35 @@ final class Move {
         return MOVES[from.index()][to.index()];
     }
 
+    /** Return the Move whose packed code (see code()) is CODE. */
+    static Move mv(int code) {
+        return MOVES[fromIndex(code)][toIndex(code)];
+    }
+
+    /** Return the packed code of the move from the square with index FROM
+     *  to the square with index TO. */
+    static int code(int from, int to) {
+        return from | to << TO_SHIFT;
+    }
+
+    /** Return the index of the square moved from in the packed move
+     *  code CODE. */
+    static int fromIndex(int code) {
+        return code & SQ_MASK;
+    }
+
+    /** Return the index of the square moved to in the packed move
+     *  code CODE. */
+    static int toIndex(int code) {
+        return code >>> TO_SHIFT;
+    }
+
+    /** Return my packed code, an int holding the indices of from() and
+     *  to() that Board uses for move generation. */
+    int code() {
+        return code(_from.index(), _to.index());
+    }
+
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax, and null otherwise. */
     static Move mv(String str) {
@@ -109,6 +138,11 @@ final class Move {
         return (_from.index() << 6) + _to.index();
     }
 
+    /** Position of the to() index in a packed move code. */
+    private static final int TO_SHIFT = 7;
+    /** Mask for the from() index in a packed move code. */
+    private static final int SQ_MASK = (1 << TO_SHIFT) - 1;
+
     /** The cache of all Moves created. */
     private static final Move[][] MOVES = new Move[NUM_SQUARES][NUM_SQUARES];
 
@@ -0,0 +1,130 @@
+package tablut;
+
+import java.util.Arrays;
+
+import static tablut.Board.SIZE;
+import static tablut.Piece.*;
+
+/** Move ordering for an alpha-beta search.  Ranks the moves generated at
+ *  a node so that those most likely to cause a cutoff come first: the
+ *  move suggested by the transposition table, then captures, then king
+ *  moves toward the edge, then the two killer moves for the ply, and
+ *  then the rest by a history table indexed by packed move code.  Each
+ *  searching thread needs its own MoveOrder.
+ *  @author Lucy Chen
+ */
+class MoveOrder {
+
+    /** A MoveOrder for searches of up to MAXPLY plies. */
+    MoveOrder(int maxPly) {
+        _killers = new int[maxPly + 1][2];
+    }
+
+    /** Store in SCORES[0 .. N-1] the ranks of the packed moves
+     *  MOVES[0 .. N-1] generated on BOARD at PLY plies from the root,
+     *  where HASHMOVE is the move suggested by the transposition table
+     *  (or TranspositionTable.NO_MOVE).  Higher ranks come first.  The
+     *  rank of a capture, even the hash move's, tells that it is one (see
+     *  isCapture), so that callers need not find out again. */
+    void rank(Board board, int[] moves, int[] scores, int n, int hashMove,
+              int ply) {
+        int[] killers = _killers[ply];
+        for (int i = 0; i < n; i++) {
+            int code = moves[i];
+            int from = Move.fromIndex(code), to = Move.toIndex(code);
+            if (code == hashMove) {
+                scores[i] = board.isCapture(code) ? HASH_RANK | CAPTURE_RANK
+                    : HASH_RANK;
+            } else if (board.isCapture(code)) {
+                scores[i] = CAPTURE_RANK;
+            } else if (board.get(from) == KING
+                       && EDGE_DISTANCE[to] < EDGE_DISTANCE[from]) {
+                scores[i] = KING_RANK + EDGE_DISTANCE[from]
+                    - EDGE_DISTANCE[to];
+            } else if (code == killers[0]) {
+                scores[i] = KILLER_RANK;
+            } else if (code == killers[1]) {
+                scores[i] = KILLER_RANK - 1;
+            } else {
+                scores[i] = _history[code];
+            }
+        }
+    }
+
+    /** Return true iff a move of rank RANK, as given by rank, is a
+     *  capture. */
+    static boolean isCapture(int rank) {
+        return (rank & CAPTURE_RANK) != 0;
+    }
+
+    /** Exchange the highest-ranked of MOVES[I .. N-1] with MOVES[I] (and
+     *  likewise their ranks in SCORES), and return it. */
+    static int next(int[] moves, int[] scores, int i, int n) {
+        int best = i;
+        for (int k = i + 1; k < n; k++) {
+            if (scores[k] > scores[best]) {
+                best = k;
+            }
+        }
+        int code = moves[best], score = scores[best];
+        moves[best] = moves[i];
+        scores[best] = scores[i];
+        moves[i] = code;
+        scores[i] = score;
+        return code;
+    }
+
+    /** Record that the quiet (non-capturing) packed move CODE caused a
+     *  cutoff at PLY plies from the root with DEPTH plies left to search. */
+    void cutoff(int code, int ply, int depth) {
+        int[] killers = _killers[ply];
+        if (killers[0] != code) {
+            killers[1] = killers[0];
+            killers[0] = code;
+        }
+        _history[code] += depth * depth;
+        if (_history[code] >= HISTORY_LIMIT) {
+            age();
+        }
+    }
+
+    /** Reduce the weight of earlier history and forget the killer moves,
+     *  as at the start of a new search. */
+    void newSearch() {
+        age();
+        for (int[] killers : _killers) {
+            Arrays.fill(killers, TranspositionTable.NO_MOVE);
+        }
+    }
+
+    /** Halve all history scores. */
+    private void age() {
+        for (int i = 0; i < _history.length; i++) {
+            _history[i] >>= 1;
+        }
+    }
+
+    /** Ranks of the classes of move, from first searched to last.  History
+     *  scores stay below HISTORY_LIMIT, so only captures have the
+     *  CAPTURE_RANK bit set. */
+    private static final int HASH_RANK = 1 << 30, CAPTURE_RANK = 1 << 29,
+        KING_RANK = 1 << 28, KILLER_RANK = 1 << 27, HISTORY_LIMIT = 1 << 26;
+
+    /** EDGE_DISTANCE[i] is the number of rows or columns between the square
+     *  with index i and the nearest edge. */
+    private static final int[] EDGE_DISTANCE = new int[SIZE * SIZE];
+
+    static {
+        for (int i = 0; i < EDGE_DISTANCE.length; i++) {
+            int col = i % SIZE, row = i / SIZE;
+            EDGE_DISTANCE[i] = Math.min(Math.min(col, SIZE - 1 - col),
+                                        Math.min(row, SIZE - 1 - row));
+        }
+    }
+
+    /** _killers[p] holds the two most recent quiet moves to cause a cutoff
+     *  p plies from the root. */
+    private final int[][] _killers;
+    /** History scores, indexed by packed move code. */
+    private final int[] _history = new int[1 << 14];
+}
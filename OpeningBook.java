@@ -0,0 +1,218 @@
+package tablut;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** A book of opening moves: for each position in the book, identified by
+ *  the key of its canonical orientation (see Board.canonicalSymmetry), one
+ *  or more good moves, in that orientation, with weights.  A position is
+ *  thus found in the book whenever one of its images under a rotation or
+ *  reflection of the board is, and only one of them is stored.  Entries
+ *  are kept in three parallel arrays sorted by key and, for equal keys,
+ *  by decreasing weight, and are found by binary search.  A book file
+ *  holds a header and then the entries, each a key, a packed move (see
+ *  Move.code) and a weight, in that order.
+ *
+ *  A book is built by expanding the tree of positions from the initial
+ *  one breadth first to a given number of plies.  Every move from each
+ *  position is valued by a search to a fixed depth, and those within
+ *  BOOK_MARGIN of the best, up to BOOK_WIDTH of them, go in the book and
+ *  are expanded in turn.  The positions at each ply are analyzed in
+ *  parallel.
+ *  @author Lucy Chen
+ */
+class OpeningBook {
+
+    /** Default depth of the searches valuing the positions in a book. */
+    static final int DEFAULT_DEPTH = 4;
+
+    /** Greatest number of moves kept for a position. */
+    static final int BOOK_WIDTH = 3;
+
+    /** Greatest amount by which the value of a move kept for a position may
+     *  fall short of the best. */
+    static final int BOOK_MARGIN = 16;
+
+    /** A book whose Ith entry is KEYS[I], MOVES[I], WEIGHTS[I], in the
+     *  order described above. */
+    private OpeningBook(long[] keys, int[] moves, int[] weights) {
+        _keys = keys;
+        _moves = moves;
+        _weights = weights;
+    }
+
+    /** Return the book in the file FILENAME, written by build. */
+    static OpeningBook load(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(fileName)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not an opening book: " + fileName);
+            }
+            int n = in.readInt();
+            long[] keys = new long[n];
+            int[] moves = new int[n], weights = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                keys[i] = in.readLong();
+                moves[i] = in.readInt();
+                weights[i] = in.readInt();
+            }
+            return new OpeningBook(keys, moves, weights);
+        }
+    }
+
+    /** Return a move from the book for the current position of BOARD, or
+     *  null if there is none.  If CONTROLLER is not null, the move is
+     *  chosen at random with probability in proportion to its weight,
+     *  using CONTROLLER.randInt; otherwise it is the heaviest. */
+    Move choose(Board board, Controller controller) {
+        int symmetry = board.canonicalSymmetry();
+        long key = board.key(symmetry);
+        int lo = 0, hi = _keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int end = lo, total = 0;
+        while (end < _keys.length && _keys[end] == key) {
+            total += _weights[end];
+            end += 1;
+        }
+        if (lo == end) {
+            return null;
+        }
+        int chosen = lo;
+        if (controller != null) {
+            int r = controller.randInt(total);
+            while (r >= _weights[chosen]) {
+                r -= _weights[chosen];
+                chosen += 1;
+            }
+        }
+        Move move = Move.mv(Board.transform(_moves[chosen],
+                                            Board.INVERSE[symmetry]));
+        return board.isLegal(move) ? move : null;
+    }
+
+    /** Return the number of entries in this book. */
+    int size() {
+        return _keys.length;
+    }
+
+    /** Build a book for the first PLIES plies of the game, valuing moves by
+     *  searches to DEPTH (> 1) levels, write it to the file FILENAME, and
+     *  report progress on LOG. */
+    static void build(int plies, int depth, String fileName,
+                      PrintStream log) throws IOException {
+        List<Board> level = new ArrayList<>();
+        level.add(new Board());
+        Set<Long> seen = new HashSet<>();
+        seen.add(level.get(0).canonicalKey());
+        List<long[]> entries = new ArrayList<>();
+        ThreadLocal<AI> analyzers = ThreadLocal.withInitial(AI::new);
+        for (int ply = 0; ply < plies && !level.isEmpty(); ply += 1) {
+            long start = System.nanoTime();
+            Board[] positions = level.toArray(new Board[level.size()]);
+            int[][][] found = new int[positions.length][][];
+            Arrays.parallelSetAll(found, i ->
+                analyze(positions[i], depth, analyzers.get()));
+            List<Board> next = new ArrayList<>();
+            for (int i = 0; i < positions.length; i += 1) {
+                int symmetry = positions[i].canonicalSymmetry();
+                for (int[] kept : found[i]) {
+                    entries.add(new long[] {
+                        positions[i].key(symmetry),
+                        Board.transform(kept[0], symmetry), kept[1]
+                    });
+                    Board child = new Board(positions[i]);
+                    child.makeMove(Move.mv(kept[0]));
+                    if (child.winner() == null
+                        && seen.add(child.canonicalKey())) {
+                        next.add(child);
+                    }
+                }
+            }
+            log.printf("ply %d: %d positions in %.3f s%n", ply,
+                       positions.length, (System.nanoTime() - start) * 1e-9);
+            level = next;
+        }
+        entries.sort((x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0])
+                     : Long.compare(y[2], x[2]));
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (long[] entry : entries) {
+                out.writeLong(entry[0]);
+                out.writeInt((int) entry[1]);
+                out.writeInt((int) entry[2]);
+            }
+        }
+        log.printf("%d entries%n", entries.size());
+    }
+
+    /** Return the moves to be kept in the book for BOARD, each a packed
+     *  move and a weight, found by valuing each move with a search by
+     *  ANALYZER to DEPTH levels.  Moves whose value is within BOOK_MARGIN
+     *  of the best are kept, best first, up to BOOK_WIDTH of them,
+     *  weighted by how close they come.  Of moves leading to images of
+     *  the same position, only the first is kept. */
+    private static int[][] analyze(Board board, int depth, AI analyzer) {
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.legalMoves(board.turn(), moves);
+        if (n == 0) {
+            return new int[0][];
+        }
+        long[] values = new long[n];
+        Board child = new Board(board);
+        for (int i = 0; i < n; i += 1) {
+            child.makeMove(Move.mv(moves[i]));
+            values[i] = (long) -analyzer.searchValue(child, depth - 1) << 32
+                | (0xffffffffL - i);
+            child.undo();
+        }
+        Arrays.sort(values);
+        long best = values[n - 1] >> 32;
+        List<int[]> kept = new ArrayList<>();
+        Set<Long> images = new HashSet<>();
+        for (int k = n - 1; k >= 0 && kept.size() < BOOK_WIDTH; k -= 1) {
+            long shortfall = best - (values[k] >> 32);
+            if (shortfall > BOOK_MARGIN) {
+                break;
+            }
+            int i = (int) (0xffffffffL - (values[k] & 0xffffffffL));
+            child.makeMove(Move.mv(moves[i]));
+            if (images.add(child.canonicalKey())) {
+                kept.add(new int[] {
+                    moves[i], (int) (BOOK_MARGIN + 1 - shortfall)
+                });
+            }
+            child.undo();
+        }
+        return kept.toArray(new int[kept.size()][]);
+    }
+
+    /** First word of a book file. */
+    private static final int MAGIC = 0x544f4232;
+
+    /** Keys of the positions of my entries. */
+    private final long[] _keys;
+    /** Packed moves of my entries. */
+    private final int[] _moves;
+    /** Weights of my entries. */
+    private final int[] _weights;
+}
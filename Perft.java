@@ -0,0 +1,96 @@
+package tablut;
+
+import java.io.PrintStream;
+import java.util.stream.IntStream;
+
+/** Move-path enumeration ("perft") for checking and timing move generation.
+ *  perft(B, N) is the number of sequences of N legal moves from position
+ *  B, where a side moves only when it is its turn and no moves follow a
+ *  position that has a winner.
+ *  @author Lucy Chen
+ */
+class Perft {
+
+    /** Return the number of move sequences of length DEPTH from the
+     *  current position of BOARD, which is left unchanged. */
+    static long count(Board board, int depth) {
+        return count(board, depth, new int[depth + 1][Board.MAX_MOVES]);
+    }
+
+    /** Return the number of move sequences of length DEPTH from BOARD,
+     *  generating moves at each level d into MOVES[d]. */
+    private static long count(Board board, int depth, int[][] moves) {
+        if (depth == 0) {
+            return 1;
+        }
+        if (board.winner() != null) {
+            return 0;
+        }
+        int[] m = moves[depth];
+        int n = board.legalMoves(board.turn(), m);
+        if (depth == 1) {
+            return n;
+        }
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            board.makeMove(Move.mv(m[i]));
+            total += count(board, depth - 1, moves);
+            board.undo();
+        }
+        return total;
+    }
+
+    /** Return the counts of move sequences of length DEPTH (> 0) from BOARD
+     *  beginning with each of ROOT, the legal moves from BOARD.  If
+     *  PARALLEL, the root moves are divided among all available cores,
+     *  each searching its own copy of BOARD. */
+    static long[] divide(Board board, Move[] root, int depth,
+                         boolean parallel) {
+        long[] counts = new long[root.length];
+        Board[] boards = new Board[root.length];
+        for (int i = 0; i < root.length; i++) {
+            boards[i] = parallel ? new Board(board) : board;
+        }
+        IntStream indices = IntStream.range(0, root.length);
+        if (parallel) {
+            indices = indices.parallel();
+        }
+        indices.forEach(i -> {
+            boards[i].makeMove(root[i]);
+            counts[i] = count(boards[i], depth - 1);
+            boards[i].undo();
+        });
+        return counts;
+    }
+
+    /** Print perft(BOARD, DEPTH) on OUT together with the time taken and
+     *  the rate in nodes per second.  If DIVIDE, first print the count
+     *  under each root move.  If PARALLEL, divide the root moves among
+     *  all available cores. */
+    static void report(PrintStream out, Board board, int depth,
+                       boolean divide, boolean parallel) {
+        long start = System.nanoTime();
+        long total;
+        Move[] root = new Move[0];
+        long[] counts = new long[0];
+        if (depth == 0 || board.winner() != null || !(divide || parallel)) {
+            total = count(board, depth);
+        } else {
+            root = board.legalMoves(board.turn()).toArray(root);
+            counts = divide(board, root, depth, parallel);
+            total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+        }
+        double secs = Math.max(System.nanoTime() - start, 1) * 1e-9;
+        if (divide) {
+            for (int i = 0; i < root.length; i++) {
+                out.printf("%s: %d%n", root[i], counts[i]);
+            }
+        }
+        out.printf("perft %d: %d nodes in %.3f s (%.0f nodes/s)%n",
+                   depth, total, secs, total / secs);
+    }
+
+}
@@ -0,0 +1,78 @@
+package tablut;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of move generation by counting move sequences (see Perft).
+ *  @author Lucy Chen
+ */
+public class PerftTest {
+
+    /** Positions after a few random moves from the initial one, as
+     *  encoded by Board.encodedBoard. */
+    static final String[] POSITIONS = {
+        "B---B----------WWBBBBB-----W----K-B--BW----W------B---B--W-B----W"
+        + "--------B--BB--B-",
+        "BB-W---B------B-----W------B-B-WW-W--B-BW---KB--W-B--B-BB--------"
+        + "-------B-B--BB-W-",
+    };
+
+    /** PERFTS[k][d - 1] is perft(d) from the initial position if k is 0,
+     *  and otherwise from POSITIONS[k - 1]. */
+    static final long[][] PERFTS = {
+        { 80, 4400, 353200, 19913864 },
+        { 90, 5826, 508339 },
+        { 97, 5305, 506587 },
+    };
+
+    /** Return a board set to the Kth test position, the initial one if K
+     *  is 0. */
+    static Board testBoard(int k) {
+        Board board = new Board();
+        if (k > 0) {
+            board.setPosition(Position.decode(POSITIONS[k - 1]));
+        }
+        return board;
+    }
+
+    @Test
+    public void testCounts() {
+        for (int k = 0; k < PERFTS.length; k += 1) {
+            Board board = testBoard(k);
+            for (int d = 1; d <= PERFTS[k].length; d += 1) {
+                assertEquals("perft " + d + " of position " + k,
+                             PERFTS[k][d - 1], Perft.count(board, d));
+            }
+        }
+    }
+
+    @Test
+    public void testBoardUnchanged() {
+        for (int k = 0; k < PERFTS.length; k += 1) {
+            Board board = testBoard(k);
+            Position before = board.position();
+            long key = board.key();
+            Perft.count(board, 3);
+            assertEquals(before, board.position());
+            assertEquals(key, board.key());
+            assertEquals(0, board.size());
+        }
+    }
+
+    @Test
+    public void testDivide() {
+        for (int k = 0; k < PERFTS.length; k += 1) {
+            Board board = testBoard(k);
+            Move[] root = board.legalMoves(board.turn()).toArray(new Move[0]);
+            long[] serial = Perft.divide(board, root, 3, false),
+                parallel = Perft.divide(board, root, 3, true);
+            long total = 0;
+            for (int i = 0; i < root.length; i += 1) {
+                assertEquals(serial[i], parallel[i]);
+                total += serial[i];
+            }
+            assertEquals(PERFTS[k][2], total);
+        }
+    }
+
+}
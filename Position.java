@@ -0,0 +1,107 @@
+package tablut;
+
+import static tablut.Board.SIZE;
+
+/** An immutable snapshot of the contents of a Tablut board and the side to
+ *  move.  Each square takes 2 bits (the ordinal of its Piece), square I
+ *  occupying bits 2 * (I % 32) of word I / 32, and the ordinal of the side
+ *  to move follows the last square.  Positions are compared and hashed by
+ *  value, and convert to and from the text form of Board.encodedBoard.
+ *  @author Lucy Chen
+ */
+final class Position {
+
+    /** Number of 64-bit words in a packed position. */
+    static final int WORDS = 3;
+
+    /** Position of the side to move in the last word. */
+    static final int TURN_SHIFT = 2 * (SIZE * SIZE - 64);
+
+    /** The Position packed in W0, W1 and W2. */
+    Position(long w0, long w1, long w2) {
+        _w0 = w0;
+        _w1 = w1;
+        _w2 = w2;
+    }
+
+    /** Return the Position whose text encoding (as produced by
+     *  Board.encodedBoard and toString) is STR. */
+    static Position decode(String str) {
+        if (str.length() != SIZE * SIZE + 1) {
+            throw new IllegalArgumentException("bad position: " + str);
+        }
+        long[] words = new long[WORDS];
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            words[i >>> 5] |= (long) piece(str.charAt(i + 1)).ordinal()
+                << ((i & 31) << 1);
+        }
+        words[WORDS - 1] |= (long) piece(str.charAt(0)).ordinal()
+            << TURN_SHIFT;
+        return new Position(words[0], words[1], words[2]);
+    }
+
+    /** Return the Piece whose symbol is C. */
+    private static Piece piece(char c) {
+        for (Piece p : PIECES) {
+            if (p.toString().charAt(0) == c) {
+                return p;
+            }
+        }
+        throw new IllegalArgumentException("bad piece symbol: " + c);
+    }
+
+    /** Return the contents of the square whose index is INDEX. */
+    Piece get(int index) {
+        return PIECES[(int) (word(index >>> 5) >>> ((index & 31) << 1)) & 3];
+    }
+
+    /** Return the side to move. */
+    Piece turn() {
+        return PIECES[(int) (_w2 >>> TURN_SHIFT) & 3];
+    }
+
+    /** Return packed word K (0 <= K < WORDS). */
+    long word(int k) {
+        switch (k) {
+        case 0:
+            return _w0;
+        case 1:
+            return _w1;
+        default:
+            return _w2;
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Position)) {
+            return false;
+        }
+        Position other = (Position) obj;
+        return _w0 == other._w0 && _w1 == other._w1 && _w2 == other._w2;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = (_w0 * 31 + _w1) * 31 + _w2;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Return the text encoding of this Position: the symbol of the side to
+     *  move followed by those of the squares in order of index. */
+    @Override
+    public String toString() {
+        char[] result = new char[SIZE * SIZE + 1];
+        result[0] = turn().toString().charAt(0);
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            result[i + 1] = get(i).toString().charAt(0);
+        }
+        return new String(result);
+    }
+
+    /** All Pieces, indexed by ordinal. */
+    private static final Piece[] PIECES = Piece.values();
+
+    /** The packed words. */
+    private final long _w0, _w1, _w2;
+}
@@ -0,0 +1,119 @@
+package tablut;
+
+import java.util.Arrays;
+
+/** A multiset of 64-bit position keys, used to tell in constant time
+ *  whether a position has occurred before.  Keys are kept in an
+ *  open-addressing table with linear probing.
+ *  @author Lucy Chen
+ */
+class PositionCounts {
+
+    /** An empty multiset. */
+    PositionCounts() {
+        _keys = new long[INITIAL_CAPACITY];
+        _counts = new int[INITIAL_CAPACITY];
+    }
+
+    /** A copy of MODEL. */
+    PositionCounts(PositionCounts model) {
+        _keys = model._keys.clone();
+        _counts = model._counts.clone();
+        _used = model._used;
+    }
+
+    /** Add one occurrence of KEY. */
+    void add(long key) {
+        int i = find(key);
+        if (_counts[i] == 0) {
+            _keys[i] = key;
+            _used += 1;
+            _counts[i] = 1;
+            if (2 * _used > _keys.length) {
+                resize(2 * _keys.length);
+            }
+        } else {
+            _counts[i] += 1;
+        }
+    }
+
+    /** Remove one occurrence of KEY, if there is one. */
+    void remove(long key) {
+        int i = find(key);
+        if (_counts[i] == 0) {
+            return;
+        }
+        _counts[i] -= 1;
+        if (_counts[i] > 0) {
+            return;
+        }
+        _used -= 1;
+        int mask = _keys.length - 1;
+        for (int j = (i + 1) & mask; _counts[j] != 0; j = (j + 1) & mask) {
+            int home = slot(_keys[j]);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                _keys[i] = _keys[j];
+                _counts[i] = _counts[j];
+                _counts[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    /** Return the number of occurrences of KEY. */
+    int count(long key) {
+        return _counts[find(key)];
+    }
+
+    /** Return true iff KEY occurs at least once. */
+    boolean contains(long key) {
+        return count(key) > 0;
+    }
+
+    /** Remove all keys. */
+    void clear() {
+        Arrays.fill(_counts, 0);
+        _used = 0;
+    }
+
+    /** Return the slot holding KEY, or the empty slot where it would go. */
+    private int find(long key) {
+        int mask = _keys.length - 1;
+        int i = slot(key);
+        while (_counts[i] != 0 && _keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** Return the home slot of KEY. */
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (_keys.length - 1);
+    }
+
+    /** Rehash into a table with CAPACITY slots. */
+    private void resize(int capacity) {
+        long[] keys = _keys;
+        int[] counts = _counts;
+        _keys = new long[capacity];
+        _counts = new int[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] != 0) {
+                int j = find(keys[i]);
+                _keys[j] = keys[i];
+                _counts[j] = counts[i];
+            }
+        }
+    }
+
+    /** Initial table size (a power of 2). */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The keys present, in slots whose count is non-zero. */
+    private long[] _keys;
+    /** Number of occurrences of the key in each slot; 0 for empty slots. */
+    private int[] _counts;
+    /** Number of occupied slots. */
+    private int _used;
+}
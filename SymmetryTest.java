@@ -0,0 +1,92 @@
+package tablut;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import static tablut.Board.SYMMETRIES;
+import static tablut.Board.SYMMETRY;
+import static tablut.Board.INVERSE;
+
+/** Tests of Board's handling of the symmetries of the board.
+ *  @author Lucy Chen
+ */
+public class SymmetryTest {
+
+    /** Number of squares on the board. */
+    static final int SQUARE_COUNT = Board.SIZE * Board.SIZE;
+
+    /** Return the image of the current position of BOARD under symmetry
+     *  S, with no history. */
+    static Board image(Board board, int s) {
+        Board result = new Board();
+        result.clear(board.turn());
+        for (int i = 0; i < SQUARE_COUNT; i += 1) {
+            if (board.get(i) != Piece.EMPTY) {
+                result.put(board.get(i), Board.SQUARES[SYMMETRY[s][i]]);
+            }
+        }
+        return result;
+    }
+
+    /** Return the packed legal moves for the side to move on BOARD,
+     *  mapped by symmetry S and sorted. */
+    static int[] movesOf(Board board, int s) {
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.legalMoves(board.turn(), moves);
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = Board.transform(moves[i], s);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    @Test
+    public void testInverses() {
+        for (int i = 0; i < SQUARE_COUNT; i += 1) {
+            assertEquals(i, SYMMETRY[0][i]);
+        }
+        for (int s = 0; s < SYMMETRIES; s += 1) {
+            for (int i = 0; i < SQUARE_COUNT; i += 1) {
+                assertEquals(i, SYMMETRY[INVERSE[s]][SYMMETRY[s][i]]);
+                for (int j = 0; j < SQUARE_COUNT; j += 1) {
+                    int code = Move.code(i, j);
+                    assertEquals(code,
+                                 Board.transform(Board.transform(code, s),
+                                                 INVERSE[s]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testImages() {
+        Random random = new Random(25);
+        int[] moves = new int[Board.MAX_MOVES];
+        Board board = new Board();
+        for (int k = 0; k < 40 && board.winner() == null; k += 1) {
+            int n = board.legalMoves(board.turn(), moves);
+            if (n == 0) {
+                break;
+            }
+            board.makeMove(Move.mv(moves[random.nextInt(n)]));
+            if (board.winner() != null) {
+                break;
+            }
+            long canonical = board.canonicalKey();
+            long perft = Perft.count(image(board, 0), 2);
+            for (int s = 0; s < SYMMETRIES; s += 1) {
+                Board image = image(board, s);
+                assertEquals(board.key(s), image.key());
+                assertEquals(canonical, image.canonicalKey());
+                assertTrue(Arrays.equals(movesOf(board, s),
+                                         movesOf(image, 0)));
+                assertEquals(perft, Perft.count(image, 2));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,362 @@
+package tablut;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+import static tablut.Board.SIZE;
+import static tablut.Board.SQUARES;
+import static tablut.Piece.*;
+
+/** Endgame tablebases: the result with perfect play of each position with
+ *  the king and a few other pieces, ignoring repeated positions and the
+ *  move limit.  There is a table for each number of white pieces besides
+ *  the king and of black pieces, with a one-byte entry for each index
+ *  (see index).  The entry is DRAW for a position that is drawn,
+ *  impossible or over, and otherwise one more than the number of plies
+ *  to the end of the game, which the side to move wins if that number is
+ *  odd and loses if it is even.
+ *
+ *  Tables are built by retrograde analysis, smallest first, so that the
+ *  results of captures may be looked up, and written to a file that is
+ *  memory-mapped for probing.  Pass d of the analysis over a table finds
+ *  the positions whose results are d plies away, examining the positions
+ *  not yet decided in parallel.
+ *  @author Lucy Chen
+ */
+class Tablebase {
+
+    /** Greatest number of pieces, including the king, in a table. */
+    static final int MAX_PIECES = 4;
+
+    /** Entry of a drawn position, and the result of probe for a position
+     *  not in the tables. */
+    static final int DRAW = 0, NONE = -1;
+
+    /** Greatest number of plies to the end of the game that is recorded;
+     *  positions decided in more are recorded as drawn. */
+    static final int MAX_DISTANCE = 254;
+
+    /** The tables for positions with at most PIECES pieces, including the
+     *  king, whose entries are in DATA, laid out as in build. */
+    private Tablebase(int pieces, ByteBuffer data) {
+        _pieces = pieces;
+        _data = data;
+        _offsets = offsets(pieces);
+    }
+
+    /** Return the tables in the file FILENAME, written by build, which is
+     *  mapped into memory rather than read. */
+    static Tablebase load(String fileName) throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer data =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int pieces = data.getInt(0) == MAGIC ? data.getInt(4) : 0;
+            if (pieces < 1 || pieces > MAX_PIECES
+                || channel.size() != offsets(pieces)[pieces][0]) {
+                throw new IOException("not a tablebase file: " + fileName);
+            }
+            return new Tablebase(pieces, data);
+        }
+    }
+
+    /** Return the entry for BOARD, which must have no winner, or NONE if
+     *  it has too many pieces, using SQUARES, which must have at least
+     *  MAX_PIECES elements, as work space. */
+    int probe(Board board, int[] squares) {
+        int whites = board.getPieceLocations(WHITE) - 1,
+            blacks = board.getPieceLocations(BLACK);
+        if (whites + blacks >= _pieces) {
+            return NONE;
+        }
+        return _data.get((int) _offsets[whites][blacks]
+                         + index(board, squares)) & 0xff;
+    }
+
+    /** Return true iff ENTRY, which is not DRAW, is a win for the side to
+     *  move. */
+    static boolean wins(int entry) {
+        return (entry & 1) == 0;
+    }
+
+    /** Return the number of plies to the end of the game in a position
+     *  whose entry is ENTRY, which is not DRAW. */
+    static int distance(int entry) {
+        return entry - 1;
+    }
+
+    /** Build the tables for all positions with at most PIECES pieces,
+     *  including the king, writing them to the file FILENAME and reporting
+     *  on each on LOG. */
+    static void build(int pieces, String fileName, PrintStream log)
+        throws IOException {
+        byte[][][] tables = new byte[pieces][pieces][];
+        int longest = 0;
+        for (int total = 0; total < pieces; total += 1) {
+            for (int whites = total; whites >= 0; whites -= 1) {
+                long start = System.nanoTime();
+                Builder builder =
+                    new Builder(tables, whites, total - whites, longest);
+                builder.build();
+                longest = Math.max(longest, builder._longest);
+                log.printf("K+%dW+%dB: %d wins, %d losses, longest %d plies"
+                           + " in %.3f s%n", whites, total - whites,
+                           builder._wins, builder._losses,
+                           builder._longest,
+                           (System.nanoTime() - start) * 1e-9);
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(pieces);
+            for (int total = 0; total < pieces; total += 1) {
+                for (int whites = total; whites >= 0; whites -= 1) {
+                    out.write(tables[whites][total - whites]);
+                }
+            }
+        }
+    }
+
+    /** Return the offsets in a file of tables for at most PIECES pieces of
+     *  the table for each number of white and black pieces besides the
+     *  king, and, in [PIECES][0], the length of the file.  The file holds
+     *  a header and then the tables in order of their numbers of pieces
+     *  and, for equal numbers, of decreasing numbers of white pieces. */
+    private static long[][] offsets(int pieces) {
+        long[][] offsets = new long[pieces + 1][pieces];
+        long offset = HEADER;
+        for (int total = 0; total < pieces; total += 1) {
+            for (int whites = total; whites >= 0; whites -= 1) {
+                offsets[whites][total - whites] = offset;
+                offset += size(whites, total - whites);
+            }
+        }
+        offsets[pieces][0] = offset;
+        return offsets;
+    }
+
+    /** Return the number of entries in the table with WHITES white and
+     *  BLACKS black pieces besides the king. */
+    private static int size(int whites, int blacks) {
+        return 2 * SQUARE_COUNT * BINOMIAL[SQUARE_COUNT][whites]
+            * BINOMIAL[SQUARE_COUNT][blacks];
+    }
+
+    /** Return the index of BOARD in its table, using SQUARES, which must
+     *  be able to hold the locations of all white or all black pieces, as
+     *  work space.  With the king on square K, white pieces on squares
+     *  W1 < W2 < ... < Ww and black ones on squares B1 < ... < Bb, the
+     *  index is ((T * SQUARE_COUNT + K) * C(SQUARE_COUNT, w) + RW)
+     *  * C(SQUARE_COUNT, b) + RB, where T is 1 iff white is to move and RW
+     *  is C(W1, 1) + ... + C(Ww, w), and similarly for RB. */
+    private static int index(Board board, int[] squares) {
+        int king = board.kingPosition().index();
+        int whites = board.pieceLocations(WHITE, squares);
+        int whiteRank = 0, k = 0;
+        for (int i = 0; i < whites; i += 1) {
+            if (squares[i] != king) {
+                k += 1;
+                whiteRank += BINOMIAL[squares[i]][k];
+            }
+        }
+        int blacks = board.pieceLocations(BLACK, squares);
+        int blackRank = 0;
+        for (int i = 0; i < blacks; i += 1) {
+            blackRank += BINOMIAL[squares[i]][i + 1];
+        }
+        int turn = board.turn() == WHITE ? 1 : 0;
+        return ((turn * SQUARE_COUNT + king) * BINOMIAL[SQUARE_COUNT][k]
+                + whiteRank) * BINOMIAL[SQUARE_COUNT][blacks] + blackRank;
+    }
+
+    /** Builds one table. */
+    private static class Builder {
+
+        /** A Builder for the table with WHITES white and BLACKS black
+         *  pieces besides the king, which it stores in TABLES, where the
+         *  tables with fewer pieces must already be.  LONGEST is the
+         *  greatest distance recorded in those tables. */
+        Builder(byte[][][] tables, int whites, int blacks, int longest) {
+            _tables = tables;
+            _whites = whites;
+            _blacks = blacks;
+            _whiteRanks = BINOMIAL[SQUARE_COUNT][whites];
+            _blackRanks = BINOMIAL[SQUARE_COUNT][blacks];
+            _table = tables[whites][blacks] = new byte[size(whites, blacks)];
+            _lowerLongest = longest;
+        }
+
+        /** Fill in my table.  Passes stop once one decides nothing and the
+         *  tables with fewer pieces hold no greater distance, since each
+         *  result decided by a pass follows a move to a position decided
+         *  by the one before or found in those tables. */
+        void build() {
+            int chunks = (_table.length + CHUNK - 1) / CHUNK;
+            for (int d = 0; d <= MAX_DISTANCE; d += 1) {
+                int plies = d;
+                long decided = IntStream.range(0, chunks).parallel()
+                    .mapToLong(c -> pass(c, plies)).sum();
+                if (decided > 0) {
+                    _longest = d;
+                    if ((d & 1) == 1) {
+                        _wins += decided;
+                    } else {
+                        _losses += decided;
+                    }
+                } else if (d > _lowerLongest) {
+                    break;
+                }
+            }
+        }
+
+        /** Make pass D over entries number CHUNK * CHUNK ... of my table,
+         *  returning the number of positions decided. */
+        private long pass(int chunk, int d) {
+            Board board = new Board();
+            int[] moves = new int[Board.MAX_MOVES];
+            int[] squares = new int[MAX_PIECES];
+            long decided = 0;
+            int end = Math.min(_table.length, (chunk + 1) * CHUNK);
+            for (int i = chunk * CHUNK; i < end; i += 1) {
+                if (_table[i] == DRAW && setUp(board, i)) {
+                    int entry = d == 0 ? ended(board)
+                        : solve(board, d, moves, squares);
+                    if (entry != DRAW) {
+                        _table[i] = (byte) entry;
+                        decided += 1;
+                    }
+                }
+            }
+            return decided;
+        }
+
+        /** Set BOARD to the position with index INDEX in my table and
+         *  return true, or return false if there is no such position, or
+         *  white is to move in one that white has won. */
+        private boolean setUp(Board board, int index) {
+            int blackRank = index % _blackRanks;
+            index /= _blackRanks;
+            int whiteRank = index % _whiteRanks;
+            index /= _whiteRanks;
+            board.clear(index / SQUARE_COUNT == 1 ? WHITE : BLACK);
+            board.put(KING, SQUARES[index % SQUARE_COUNT]);
+            return place(board, WHITE, _whites, whiteRank)
+                && place(board, BLACK, _blacks, blackRank)
+                && (board.winner() == null || board.turn() == BLACK);
+        }
+
+        /** Put COUNT pieces of kind PIECE on BOARD on the squares whose
+         *  combination has rank RANK (see index) and return true, or return
+         *  false if one is the throne or already occupied. */
+        private static boolean place(Board board, Piece piece, int count,
+                                     int rank) {
+            for (int k = count; k > 0; k -= 1) {
+                int s = SQUARE_COUNT - 1;
+                while (BINOMIAL[s][k] > rank) {
+                    s -= 1;
+                }
+                rank -= BINOMIAL[s][k];
+                if (s == THRONE_INDEX || board.get(s) != EMPTY) {
+                    return false;
+                }
+                board.put(piece, SQUARES[s]);
+            }
+            return true;
+        }
+
+        /** Return the entry for BOARD if its game is over (which it is if
+         *  the side to move has no legal move), and otherwise DRAW. */
+        private static int ended(Board board) {
+            if (board.winner() != null || !board.hasMove(board.turn())) {
+                return 1;
+            }
+            return DRAW;
+        }
+
+        /** Return the entry for BOARD if its result is D (> 0) plies away,
+         *  and otherwise DRAW, using MOVES and SQUARES as work space. */
+        private int solve(Board board, int d, int[] moves, int[] squares) {
+            Piece side = board.turn();
+            int n = board.legalMoves(side, moves);
+            for (int i = 0; i < n; i += 1) {
+                board.makeMove(Move.mv(moves[i]));
+                int entry = board.winner() == side ? 1 : entry(board, squares);
+                board.undo();
+                if ((d & 1) == 1 && entry == d) {
+                    return d + 1;
+                } else if ((d & 1) == 0
+                           && (entry == DRAW || !wins(entry) || entry > d)) {
+                    return DRAW;
+                }
+            }
+            return (d & 1) == 0 ? d + 1 : DRAW;
+        }
+
+        /** Return the entry for BOARD, which has no more pieces than my
+         *  table, using SQUARES as work space. */
+        private int entry(Board board, int[] squares) {
+            byte[] table = _tables[board.getPieceLocations(WHITE) - 1]
+                [board.getPieceLocations(BLACK)];
+            return table[index(board, squares)] & 0xff;
+        }
+
+        /** Number of entries examined by each task of a pass. */
+        private static final int CHUNK = 1 << 14;
+
+        /** All tables, indexed by numbers of white and black pieces. */
+        private final byte[][][] _tables;
+        /** My table. */
+        private final byte[] _table;
+        /** Numbers of white pieces, besides the king, and black pieces in
+         *  my positions. */
+        private final int _whites, _blacks;
+        /** Numbers of combinations of squares for my white and black
+         *  pieces. */
+        private final int _whiteRanks, _blackRanks;
+        /** Greatest distance in the tables with fewer pieces. */
+        private final int _lowerLongest;
+        /** Greatest distance in my table. */
+        private int _longest;
+        /** Numbers of wins and losses for the side to move in my table. */
+        private long _wins, _losses;
+    }
+
+    /** Number of squares on the board. */
+    private static final int SQUARE_COUNT = SIZE * SIZE;
+
+    /** Index of the throne square. */
+    private static final int THRONE_INDEX = Board.THRONE.index();
+
+    /** First word of a tablebase file, and the length of its header. */
+    private static final int MAGIC = 0x54424c31, HEADER = 8;
+
+    /** BINOMIAL[n][k] is n choose k, for k <= MAX_PIECES. */
+    private static final int[][] BINOMIAL =
+        new int[SQUARE_COUNT + 1][MAX_PIECES + 1];
+
+    static {
+        for (int n = 0; n <= SQUARE_COUNT; n += 1) {
+            BINOMIAL[n][0] = 1;
+            for (int k = 1; k <= Math.min(n, MAX_PIECES); k += 1) {
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1]
+                    + (k < n ? BINOMIAL[n - 1][k] : 0);
+            }
+        }
+    }
+
+    /** Greatest number of pieces, including the king, in my tables. */
+    private final int _pieces;
+    /** The contents of my file. */
+    private final ByteBuffer _data;
+    /** Offsets of my tables in _data; see offsets. */
+    private final long[][] _offsets;
+}
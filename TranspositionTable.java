@@ -0,0 +1,129 @@
+package tablut;
+
+import java.util.Arrays;
+
+/** A fixed-size table of search results indexed by 64-bit position keys
+ *  (see Board.key).  Each bucket has two entries: the first keeps the
+ *  deepest recent result and the second always takes the newest one.  An
+ *  entry is a key word and a data word packing the search depth, the kind
+ *  of bound, the score, the best move's packed code (see Move.code) and
+ *  the generation of the search that stored it.  The table may be shared
+ *  by several searching threads without locking: the key word of an entry
+ *  holds the key XORed with the data word, so that an entry half-written
+ *  by one thread while another reads it fails to match and is ignored.
+ *  @author Lucy Chen
+ */
+class TranspositionTable {
+
+    /** Kinds of bound on the score of a position: the true value is at
+     *  least the score, at most the score, or equal to it. */
+    static final int LOWER = 1, UPPER = 2, EXACT = LOWER | UPPER;
+
+    /** Packed move code in data words that have no best move. */
+    static final int NO_MOVE = 0;
+
+    /** A table occupying about MEGABYTES megabytes. */
+    TranspositionTable(int megabytes) {
+        long size = Math.max(1, ((long) megabytes << 20) / (2 * ENTRY_BYTES));
+        int buckets = Integer.highestOneBit((int) Math.min(size, 1 << 28));
+        _keys = new long[2 * buckets];
+        _data = new long[2 * buckets];
+        _mask = buckets - 1;
+    }
+
+    /** Return the data word stored for KEY, or 0 if there is none. */
+    long probe(long key) {
+        int i = bucket(key);
+        long data0 = _data[i], data1 = _data[i + 1];
+        if ((_keys[i] ^ data0) == key && data0 != 0) {
+            return data0;
+        } else if ((_keys[i + 1] ^ data1) == key && data1 != 0) {
+            return data1;
+        }
+        return 0;
+    }
+
+    /** Record that a search to DEPTH of the position with key KEY found
+     *  SCORE, a bound of kind BOUND, with best move MOVE (a packed code,
+     *  or NO_MOVE). */
+    void store(long key, int depth, int bound, int score, int move) {
+        int i = bucket(key);
+        long data = (score & 0xffffffffL) | (long) move << MOVE_SHIFT
+            | (long) depth << DEPTH_SHIFT | (long) bound << BOUND_SHIFT
+            | (long) _generation << GENERATION_SHIFT;
+        long data0 = _data[i];
+        boolean same = (_keys[i] ^ data0) == key;
+        if (same || data0 == 0 || generation(data0) != _generation
+            || depth >= depth(data0)) {
+            if (move == NO_MOVE && same) {
+                data |= (long) move(data0) << MOVE_SHIFT;
+            }
+            _keys[i] = key ^ data;
+            _data[i] = data;
+        } else {
+            _keys[i + 1] = key ^ data;
+            _data[i + 1] = data;
+        }
+    }
+
+    /** Start a new search, so that entries from earlier searches are the
+     *  first to be replaced.  Not to be called while threads are using the
+     *  table. */
+    void newSearch() {
+        _generation = (_generation + 1) & GENERATION_MASK;
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        Arrays.fill(_keys, 0L);
+        Arrays.fill(_data, 0L);
+    }
+
+    /** Return the score in DATA. */
+    static int score(long data) {
+        return (int) data;
+    }
+
+    /** Return the packed best move in DATA, or NO_MOVE. */
+    static int move(long data) {
+        return (int) (data >>> MOVE_SHIFT) & MOVE_MASK;
+    }
+
+    /** Return the search depth in DATA. */
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & DEPTH_MASK;
+    }
+
+    /** Return the kind of bound in DATA. */
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & EXACT;
+    }
+
+    /** Return the generation in DATA. */
+    private static int generation(long data) {
+        return (int) (data >>> GENERATION_SHIFT) & GENERATION_MASK;
+    }
+
+    /** Return the index of the first entry of KEY's bucket. */
+    private int bucket(long key) {
+        return ((int) (key ^ key >>> 32) & _mask) << 1;
+    }
+
+    /** Bytes used by an entry. */
+    private static final int ENTRY_BYTES = 16;
+
+    /** Positions and widths of the fields of a data word. */
+    private static final int MOVE_SHIFT = 32, MOVE_MASK = (1 << 14) - 1,
+        DEPTH_SHIFT = 46, DEPTH_MASK = 0xff,
+        BOUND_SHIFT = 54,
+        GENERATION_SHIFT = 56, GENERATION_MASK = 0x3f;
+
+    /** Keys of the entries XORed with their data words, two per bucket. */
+    private final long[] _keys;
+    /** Data words of the entries; 0 for an empty entry. */
+    private final long[] _data;
+    /** Mask selecting a bucket number from a hash. */
+    private final int _mask;
+    /** Generation of the current search. */
+    private int _generation;
+}
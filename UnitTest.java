@@ -0,0 +1,17 @@
+package tablut;
+
+import ucb.junit.textui;
+
+/** The suite of all JUnit tests for the tablut package.
+ *  @author Lucy Chen
+ */
+public class UnitTest {
+
+    /** Run the JUnit tests in this package.  Add xxxTest.class entries to
+     *  the arguments of runClasses to run other JUnit tests. */
+    public static void main(String[] ignored) {
+        System.exit(textui.runClasses(PerftTest.class, BoardTest.class,
+                                      SymmetryTest.class));
+    }
+
+}